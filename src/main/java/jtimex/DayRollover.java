@@ -0,0 +1,159 @@
+package jtimex;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import jtimex.store.DataStore;
+import jtimex.store.DayRecord;
+import jtimex.store.Interval;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the tracked day at midnight. The durations up to midnight are
+ * stored with the day that ended, including the part of a session that
+ * is still running, and the active project carries on in the new day from
+ * midnight. The next midnight is worked out from the wall clock once per
+ * day, so a change of clock or daylight saving time only moves the next
+ * rollover.
+ */
+public class DayRollover
+{
+	private static final Logger log = LoggerFactory.getLogger(DayRollover.class);
+	private final TimeSource clock;
+	private final DataStore store;
+	private final Function<LocalDate, List<Project>> shownProjects;
+	private final Supplier<Project> activeProject;
+	private final Consumer<LocalDate> newDay;
+	private final Executor executor;
+	private final ScheduledExecutorService scheduler;
+
+	private ScheduledFuture<?> next;
+
+	/**
+	 * @param shownProjects returns the projects being tracked if the given
+	 *        day is shown, otherwise null
+	 * @param newDay called with the new day after each rollover
+	 * @param executor runs the rollover, i.e. on the FX thread
+	 */
+	public DayRollover(TimeSource clock, DataStore store,
+			Function<LocalDate, List<Project>> shownProjects,
+			Supplier<Project> activeProject,
+			Consumer<LocalDate> newDay,
+			Executor executor)
+	{
+		this.clock = clock;
+		this.store = store;
+		this.shownProjects = shownProjects;
+		this.activeProject = activeProject;
+		this.newDay = newDay;
+		this.executor = executor;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "jtimex-rollover");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public synchronized void start()
+	{
+		if (next == null)
+		{
+			schedule(clock.now().toLocalDate().plusDays(1));
+		}
+	}
+
+	public synchronized void shutdown()
+	{
+		if (next != null)
+		{
+			next.cancel(false);
+		}
+		scheduler.shutdown();
+	}
+
+	/**
+	 * Schedules the rollover to the given day. The next one is always for
+	 * the following day, even if the task ran a little early.
+	 */
+	private synchronized void schedule(LocalDate day)
+	{
+		if (scheduler.isShutdown())
+		{
+			return;
+		}
+		long delay = Duration.between(clock.now(), day.atStartOfDay()).toMillis();
+		next = scheduler.schedule(() -> executor.execute(() -> {
+			try
+			{
+				rollOver(day);
+			}
+			finally
+			{
+				schedule(day.plusDays(1));
+			}
+		}), Math.max(0, delay), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Closes the day before the given day and starts the given day.
+	 */
+	void rollOver(LocalDate day)
+	{
+		LocalDate previous = day.minusDays(1);
+		LocalDateTime midnight = day.atStartOfDay();
+		List<Project> projects = shownProjects.apply(previous);
+		if (projects != null)
+		{
+			Project active = activeProject.get();
+			Map<String, Duration> durations = new LinkedHashMap<>();
+			for (Project project : projects)
+			{
+				Interval interval = project.intervalTo(midnight);
+				if (interval != null)
+				{
+					store.storeInterval(interval);
+				}
+				Duration closed = project.rollOver(midnight);
+				durations.put(project.getName(), Duration.ofSeconds(closed.getSeconds()));
+				project.setDuration(project.getCurrentDuration());
+			}
+			store.storeDay(new DayRecord(previous, durations, null, null));
+			store.storeTimexData(day, projects, active);
+			log.info("Rolled over to {}, tracking {}", day, active == null ? "nothing" : active.getName());
+		}
+		else
+		{
+			// another day is shown, so the stored day is closed the same
+			// way as when a past day is loaded
+			String activeName = store.loadDay(previous).getActiveName();
+			if (activeName != null)
+			{
+				List<Project> closed = new ArrayList<>();
+				store.loadTimexData(previous, closed, false);
+				store.storeTimexData(previous, closed, null);
+				store.storeDay(new DayRecord(day, Collections.singletonMap(activeName, Duration.ZERO),
+						activeName, LocalTime.MIDNIGHT));
+				log.info("Rolled over to {}, tracking {}", day, activeName);
+			}
+		}
+		newDay.accept(day);
+	}
+
+}
@@ -0,0 +1,208 @@
+package jtimex;
+
+import java.time.Duration;
+
+/**
+ * Formats and parses durations as shown in the tracker (hh:mm:ss, with as
+ * many hour digits as needed) and as ISO-8601 strings (PTnHnMn.nS) as
+ * written by older stores. Formatting into a caller's buffer and parsing
+ * do not allocate.
+ */
+public final class DurationCodec
+{
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private DurationCodec()
+	{
+	}
+
+	public static String format(Duration duration)
+	{
+		StringBuilder builder = new StringBuilder(9);
+		format(duration.getSeconds(), builder);
+		return builder.toString();
+	}
+
+	/**
+	 * Appends the seconds as hh:mm:ss. Negative values get a leading minus.
+	 */
+	public static void format(long seconds, StringBuilder builder)
+	{
+		if (seconds < 0)
+		{
+			builder.append('-');
+			seconds = seconds == Long.MIN_VALUE ? Long.MAX_VALUE : -seconds;
+		}
+		long hours = seconds / 3600;
+		int minutes = (int)(seconds / 60 % 60);
+		int secs = (int)(seconds % 60);
+		if (hours < 10)
+		{
+			builder.append('0');
+		}
+		builder.append(hours).append(':');
+		builder.append((char)('0' + minutes / 10)).append((char)('0' + minutes % 10)).append(':');
+		builder.append((char)('0' + secs / 10)).append((char)('0' + secs % 10));
+	}
+
+	/**
+	 * Writes the seconds as hh:mm:ss into the array at the given offset
+	 * and returns the number of chars written. The array needs room for
+	 * at least 9 chars, more for totals of 1000 hours or more.
+	 */
+	public static int format(long seconds, char[] chars, int offset)
+	{
+		int pos = offset;
+		if (seconds < 0)
+		{
+			chars[pos++] = '-';
+			seconds = seconds == Long.MIN_VALUE ? Long.MAX_VALUE : -seconds;
+		}
+		long hours = seconds / 3600;
+		int minutes = (int)(seconds / 60 % 60);
+		int secs = (int)(seconds % 60);
+		int digits = 2;
+		for (long h = hours / 100; h > 0; h /= 10)
+		{
+			digits++;
+		}
+		for (int i = digits - 1; i >= 0; i--)
+		{
+			chars[pos + i] = (char)('0' + hours % 10);
+			hours /= 10;
+		}
+		pos += digits;
+		chars[pos++] = ':';
+		chars[pos++] = (char)('0' + minutes / 10);
+		chars[pos++] = (char)('0' + minutes % 10);
+		chars[pos++] = ':';
+		chars[pos++] = (char)('0' + secs / 10);
+		chars[pos++] = (char)('0' + secs % 10);
+		return pos - offset;
+	}
+
+	/**
+	 * Parses hh:mm:ss, with two or more hour digits, into seconds.
+	 */
+	public static long parseClock(CharSequence s)
+	{
+		int length = s.length();
+		int colon = length - 6;
+		if (colon < 2 || s.charAt(colon) != ':' || s.charAt(length - 3) != ':')
+		{
+			throw new IllegalArgumentException("Invalid time: " + s);
+		}
+		long hours = 0;
+		for (int i=0; i<colon; i++)
+		{
+			hours = hours * 10 + digit(s, i);
+		}
+		int minutes = digit(s, colon + 1) * 10 + digit(s, colon + 2);
+		int seconds = digit(s, length - 2) * 10 + digit(s, length - 1);
+		if (minutes > 59 || seconds > 59)
+		{
+			throw new IllegalArgumentException("Invalid time: " + s);
+		}
+		return hours * 3600 + minutes * 60 + seconds;
+	}
+
+	/**
+	 * Parses the ISO-8601 form written by {@link Duration#toString()}.
+	 * Anything else, such as days or negative parts, is left to
+	 * {@link Duration#parse(CharSequence)}.
+	 */
+	public static Duration parseIso(CharSequence s)
+	{
+		long nanos = parseIsoNanos(s);
+		if (nanos < 0)
+		{
+			return Duration.parse(s);
+		}
+		return Duration.ofSeconds(nanos / NANOS_PER_SECOND, nanos % NANOS_PER_SECOND);
+	}
+
+	/**
+	 * Returns the ISO duration in nanos, or -1 if it is not of the simple
+	 * PTnHnMn.nS form.
+	 */
+	static long parseIsoNanos(CharSequence s)
+	{
+		int length = s.length();
+		if (length < 3 || s.charAt(0) != 'P' || s.charAt(1) != 'T')
+		{
+			return -1;
+		}
+		long total = 0;
+		long value = 0;
+		long fraction = 0;
+		int fractionDigits = -1;
+		boolean hasDigits = false;
+		for (int i=2; i<length; i++)
+		{
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9')
+			{
+				if (fractionDigits < 0)
+				{
+					value = value * 10 + (c - '0');
+				}
+				else if (fractionDigits < 9)
+				{
+					fraction = fraction * 10 + (c - '0');
+					fractionDigits++;
+				}
+				hasDigits = true;
+				continue;
+			}
+			if (!hasDigits)
+			{
+				return -1;
+			}
+			switch (c)
+			{
+			case '.':
+				if (fractionDigits >= 0)
+				{
+					return -1;
+				}
+				fractionDigits = 0;
+				continue;
+			case 'H':
+				total += value * 3600 * NANOS_PER_SECOND;
+				break;
+			case 'M':
+				total += value * 60 * NANOS_PER_SECOND;
+				break;
+			case 'S':
+				for (int d = fractionDigits; d < 9; d++)
+				{
+					fraction *= 10;
+				}
+				total += value * NANOS_PER_SECOND + (fractionDigits < 0 ? 0 : fraction);
+				break;
+			default:
+				return -1;
+			}
+			if (fractionDigits >= 0 && c != 'S')
+			{
+				return -1;
+			}
+			value = 0;
+			fraction = 0;
+			fractionDigits = -1;
+			hasDigits = false;
+		}
+		return hasDigits ? -1 : total;
+	}
+
+	private static int digit(CharSequence s, int index)
+	{
+		char c = s.charAt(index);
+		if (c < '0' || c > '9')
+		{
+			throw new IllegalArgumentException("Invalid time: " + s);
+		}
+		return c - '0';
+	}
+
+}
@@ -0,0 +1,88 @@
+package jtimex;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import jtimex.store.Interval;
+
+/**
+ * Accumulates the seconds tracked for each project by day of the week and
+ * hour of the day, from a stream of intervals. Each project has a
+ * long[7][24] table, indexed from Monday and midnight, and an interval is
+ * added an hour at a time without allocating.
+ */
+public class Heatmap implements Consumer<Interval>
+{
+	private static final int SECONDS_PER_HOUR = 3600;
+	private static final int SECONDS_PER_DAY = 86400;
+
+	private final Map<String, long[][]> projects = new HashMap<>();
+	// the table of the last project, as intervals often come in runs
+	private String lastProject;
+	private long[][] last;
+
+	@Override
+	public void accept(Interval interval)
+	{
+		add(interval.getProject(), seconds(interval.getStart()), seconds(interval.getEnd()));
+	}
+
+	/**
+	 * Adds the time between the given local date-times, in epoch seconds.
+	 */
+	public void add(String project, long start, long end)
+	{
+		if (!project.equals(lastProject))
+		{
+			last = projects.computeIfAbsent(project, p -> new long[7][24]);
+			lastProject = project;
+		}
+		while (start < end)
+		{
+			long day = Math.floorDiv(start, SECONDS_PER_DAY);
+			int secondOfDay = (int)(start - day * SECONDS_PER_DAY);
+			int hour = secondOfDay / SECONDS_PER_HOUR;
+			long hourEnd = start - secondOfDay % SECONDS_PER_HOUR + SECONDS_PER_HOUR;
+			long until = Math.min(end, hourEnd);
+			// 1970-01-01 was a Thursday
+			last[(int)Math.floorMod(day + 3, 7)][hour] += until - start;
+			start = until;
+		}
+	}
+
+	private static long seconds(LocalDateTime time)
+	{
+		return time.toEpochSecond(ZoneOffset.UTC);
+	}
+
+	/**
+	 * Returns the table of each project, by project name.
+	 */
+	public Map<String, long[][]> getProjects()
+	{
+		return projects;
+	}
+
+	/**
+	 * Returns the largest number of seconds in any cell.
+	 */
+	public long getMax()
+	{
+		long max = 0;
+		for (long[][] table : projects.values())
+		{
+			for (long[] hours : table)
+			{
+				for (long seconds : hours)
+				{
+					max = Math.max(max, seconds);
+				}
+			}
+		}
+		return max;
+	}
+
+}
@@ -1,15 +1,17 @@
 package jtimex;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -17,6 +19,7 @@ import javafx.scene.Group;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.DatePicker;
+import javafx.scene.control.Label;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
@@ -30,13 +33,26 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
+import jtimex.store.CachingStore;
+import jtimex.store.ColumnarStore;
 import jtimex.store.DataStore;
-import jtimex.store.InitialisationFailed;
+import jtimex.store.DayPrefetcher;
+import jtimex.store.DayRecord;
+import jtimex.store.InstrumentedStore;
+import jtimex.store.Interval;
+import jtimex.store.IntervalStore;
+import jtimex.store.JournalStore;
 import jtimex.store.Neo4JStore;
+import jtimex.store.ParallelReport;
+import jtimex.store.SnapshotStore;
+import jtimex.store.WriteBehindStore;
 
 import org.controlsfx.dialog.Dialogs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class JTimex extends Application {
+	private static final Logger log = LoggerFactory.getLogger(JTimex.class);
 	
     private volatile Project activeProject = null;
     
@@ -47,22 +63,23 @@ public class JTimex extends Application {
     @Override
     public void start(Stage stage) 
     {
+    	StartupTimer startup = new StartupTimer();
         ObservableList<Project> data = FXCollections.observableArrayList();
         BorderPane tablePane = new BorderPane();
 
-    	DataStore store = new Neo4JStore();
-    	try 
-    	{
-    		store.init();
-    	}
-    	catch (InitialisationFailed e)
-    	{
-    		printMessages(e);
-    		Platform.exit();
-    		return;
-    	}
-    	data.addAll(store.readProjects());
-    	activeProject = store.loadTimexData(LocalDate.now(), data, true);
+        // the store is opened in the background after the window is shown.
+        // The backend is instrumented as well as the whole stack, since
+        // writes only reach it through the write-behind queue.
+    	DataStore backend = new InstrumentedStore(createStore(), "backend");
+    	CachingStore cache = new CachingStore(new WriteBehindStore(backend));
+    	SnapshotStore snapshot = new SnapshotStore(cache);
+    	// the intervals between activation and deactivation are kept as well,
+    	// and the timings of all store operations are published over JMX
+    	DataStore store = new InstrumentedStore(new IntervalStore(snapshot));
+    	// days around the one shown are loaded in the background
+    	DayPrefetcher prefetcher = new DayPrefetcher(cache,
+    			Integer.getInteger("jtimex.prefetchDepth", 2),
+    			Boolean.getBoolean("jtimex.prefetchWeek"));
     	
         Scene scene = new Scene(new Group());
         stage.setTitle("JTimex");
@@ -113,17 +130,14 @@ public class JTimex extends Application {
                     .showError();
             		return;
             	}
-            	for (Project p : projects)
+            	if (store.findProject(name) != null)
             	{
-            		if (p.getName().equals(name))
-            		{
-            			Dialogs.create()
-            			.owner(stage)
-            			.title("Duplicate project")
-            			.message("A project named '" + name + "' already exists.\nPlease enter a new project name.")
-            			.showError();
-            			return;
-            		}
+            		Dialogs.create()
+            		.owner(stage)
+            		.title("Duplicate project")
+            		.message("A project named '" + name + "' already exists.\nPlease enter a new project name.")
+            		.showError();
+            		return;
             	}
             	Project project = new Project(name);
             	projects.add(project);
@@ -153,6 +167,28 @@ public class JTimex extends Application {
         
         TableView<Project> table = createTableView();
         table.setItems(data);
+        table.setPlaceholder(new Label("Loading projects..."));
+        // show the state saved by the last run until the store is open
+        DayRecord lastRun = SnapshotStore.readSnapshot(snapshot.getPath());
+        if (lastRun != null)
+        {
+        	List<Project> projects = new ArrayList<>();
+        	if (lastRun.getDate().equals(LocalDate.now()))
+        	{
+        		activeProject = lastRun.applyTo(projects, true);
+        	}
+        	else
+        	{
+        		lastRun.getDurations().keySet().forEach(name -> projects.add(new Project(name)));
+        	}
+        	data.setAll(projects);
+        	if (activeProject != null)
+        	{
+        		table.getSelectionModel().select(activeProject);
+        	}
+        	startup.phase("snapshot shown");
+        }
+        table.setMouseTransparent(true);
                 
         final Button editButton = new Button("Edit Table");
         DatePicker timexDatePicker = new DatePicker();
@@ -198,6 +234,7 @@ public class JTimex extends Application {
             		trackerMenu.setDisable(true);
             	}
             	tablePane.setCenter(newTable);
+            	prefetcher.navigated(date);
             }
         });
         Button previousDayBt = new Button("<");
@@ -220,13 +257,6 @@ public class JTimex extends Application {
         dateControlB.setCenter(timexDatePicker);
         dateControlB.setPadding(new Insets(0, 0, 10, 0));
         
-        if (activeProject != null)
-        {
-        	table.getSelectionModel().clearSelection();
-        	table.getSelectionModel().select(activeProject);
-        }
-        addSelectionListener(table, store);
-        
         String defaultStyle = table.getStyle();
         editButton.setOnAction(new EventHandler<ActionEvent>() {
             @Override
@@ -239,7 +269,7 @@ public class JTimex extends Application {
             	tablePane.setCenter(newTable);
             	if ((Boolean) editButton.getText().equals("Exit Edit Mode"))
             	{
-            		System.out.println("Exiting edit mode");
+            		log.debug("Exiting edit mode");
                 	newTable.setStyle(defaultStyle);
                 	LocalDate date = timexDatePicker.getValue();
                 	if (LocalDate.now().isEqual(date))
@@ -254,7 +284,7 @@ public class JTimex extends Application {
 	            	Project actProj = (Project) editButton.getProperties().get("activeProject");
 	            	if (actProj != null)
 	            	{
-	            		System.out.println("Selecting active project: " + actProj.getName());
+	            		log.debug("Selecting active project: {}", actProj.getName());
 	            		newTable.getSelectionModel().select(actProj);
 	            	}
             	}
@@ -269,6 +299,18 @@ public class JTimex extends Application {
             }
         });
  
+        // the tracked day is closed and the next one started at midnight
+        DayRollover rollover = new DayRollover(TimeSource.SYSTEM, store,
+        		day -> day.equals(timexDatePicker.getValue()) ? getTableItems(tablePane) : null,
+        		() -> activeProject,
+        		day -> {
+        			if (timexDatePicker.getValue().equals(day.minusDays(1)))
+        			{
+        				timexDatePicker.setValue(day);
+        			}
+        		},
+        		Platform::runLater);
+ 
         final HBox projectControlB = new HBox();
         projectControlB.getChildren().addAll(editButton);
         projectControlB.setSpacing(3);
@@ -290,27 +332,131 @@ public class JTimex extends Application {
  
         stage.setScene(scene);
         stage.show();
-        Timer timer = new Timer(true);
-        TimerTask timerTask = new TimerTask() {
-			
-			@Override
-			public void run() {
-				if (activeProject != null)
-				{
-					activeProject.tick();
-				}
-			}
-		};
-        timer.scheduleAtFixedRate(timerTask, 1000, 1000);
+        startup.phase("window shown");
+        
+        menuBar.setDisable(true);
+        dateControlB.setDisable(true);
+        projectControlB.setDisable(true);
+        Task<List<Project>> load = new Task<List<Project>>() {
+        	@Override
+        	protected List<Project> call()
+        	{
+        		store.init();
+        		// before anything else can fail, so the open store is
+        		// always shut down
+        		registerShutdownHook(store, prefetcher);
+        		startup.phase("store initialised");
+        		List<Project> projects = new ArrayList<>(store.readProjects());
+        		activeProject = store.loadTimexData(LocalDate.now(), projects, true);
+        		startup.phase("projects loaded");
+        		return projects;
+        	}
+        };
+        load.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+        	@Override
+        	public void handle(WorkerStateEvent e)
+        	{
+        		if (lastRun != null && lastRun.getDate().equals(LocalDate.now())
+        				&& !DayRecord.of(LocalDate.now(), load.getValue(), activeProject)
+        				.getDurations().equals(lastRun.getDurations()))
+        		{
+        			log.info("Startup snapshot differed from the store, showing the stored state");
+        		}
+        		data.setAll(load.getValue());
+        		table.setPlaceholder(new Label("No projects"));
+        		table.setMouseTransparent(false);
+                table.getSelectionModel().clearSelection();
+                if (activeProject != null)
+                {
+                	table.getSelectionModel().select(activeProject);
+                }
+                addSelectionListener(table, store);
+                menuBar.setDisable(false);
+                dateControlB.setDisable(false);
+                projectControlB.setDisable(false);
+            	prefetcher.navigated(LocalDate.now());
+            	rollover.start();
+        		startup.phase("table populated");
+        		// runs after the next pulse has rendered the table
+        		Platform.runLater(() -> startup.phase("first paint"));
+        	}
+        });
+        load.setOnFailed(new EventHandler<WorkerStateEvent>() {
+        	@Override
+        	public void handle(WorkerStateEvent e)
+        	{
+        		printMessages(load.getException());
+        		Platform.exit();
+        	}
+        });
+        Thread loader = new Thread(load, "jtimex-startup");
+        loader.setDaemon(true);
+        loader.start();
+        
+        // the running tracker is redrawn once a second, but not while minimised
+        Ticker ticker = new Ticker(() -> activeProject);
+        ticker.start();
+        stage.iconifiedProperty().addListener((observable, wasIconified, iconified) -> {
+        	if (iconified)
+        	{
+        		ticker.pause();
+        	}
+        	else
+        	{
+        		ticker.start();
+        	}
+        });
+    }
+
+    /**
+     * Creates the backend selected by the "jtimex.store" system property,
+     * either "neo4j" (the default), "journal" or "columnar".
+     */
+    private static DataStore createStore()
+    {
+    	String type = System.getProperty("jtimex.store", "neo4j");
+    	if (type.equals("journal"))
+    	{
+    		return new JournalStore();
+    	}
+    	if (type.equals("columnar"))
+    	{
+    		return new ColumnarStore();
+    	}
+    	Neo4JStore neo4j = new Neo4JStore();
+    	int parallelism = Integer.getInteger("jtimex.reportParallelism", 0);
+    	if (parallelism > 0)
+    	{
+    		neo4j.setParallelReport(new ParallelReport(parallelism, 
+    				Integer.getInteger("jtimex.reportChunkDays", 92)));
+    	}
+    	return neo4j;
+    }
+
+    private static void registerShutdownHook( final DataStore store, final DayPrefetcher prefetcher )
+    {
+        // Registers a shutdown hook for the store so that pending writes
+        // are flushed and the database shuts down nicely when the VM exits
+        // (even if you "Ctrl-C" the running application). The prefetcher
+        // is stopped first so that no loads run against a closed store.
+        Runtime.getRuntime().addShutdownHook( new Thread()
+        {
+            @Override
+            public void run()
+            {
+                prefetcher.shutdown();
+                store.shutdown();
+            }
+        } );
     }
 
 	private void printMessages(Throwable e)
 	{
-		System.err.println(e.getMessage());
+		log.error(e.getMessage());
 		Throwable exc = e.getCause();
 		while (exc != null)
 		{
-			System.err.println(exc.getMessage());
+			log.error(exc.getMessage());
 			exc = exc.getCause();
 		}
 	}
@@ -344,9 +490,30 @@ public class JTimex extends Application {
         	    new EventHandler<CellEditEvent<Project, String>>() {
         	        @Override
         	        public void handle(CellEditEvent<Project, String> t) {
-        	            ((Project) t.getTableView().getItems().get(
-        	                t.getTablePosition().getRow())
-        	                ).setName(t.getNewValue());
+        	        	Project project =
+        	        			(Project) t.getTableView().getItems().get(
+        	        					t.getTablePosition().getRow());
+        	        	if (t.getNewValue().isEmpty() || t.getNewValue().equals(project.getName()))
+        	        	{
+                			t.getTableColumn().setVisible(false);
+                			t.getTableColumn().setVisible(true);
+        	        		return;
+        	        	}
+        	        	try
+        	        	{
+        	        		store.rename(project, t.getNewValue());
+        	        		project.setName(t.getNewValue());
+        	        	}
+        	        	catch (IllegalArgumentException e)
+        	        	{
+                			Dialogs.create()
+                			.owner(table.getParent().getParent())
+                			.title("Duplicate project")
+                			.message(e.getMessage() + "\nPlease enter a new project name.")
+                			.showError();
+                			t.getTableColumn().setVisible(false);
+                			t.getTableColumn().setVisible(true);
+        	        	}
         	        }
         	    });     
 		TableColumn<Project, String> durationCol = (TableColumn<Project, String>) table.getColumns().get(1);
@@ -390,13 +557,17 @@ public class JTimex extends Application {
         			{
         				for (int i : change.getRemoved())
         				{
-        					System.out.println("Deactivating " + data.get(i).getName());
-        					data.get(i).deactivate();
+        					log.debug("Deactivating {}", data.get(i).getName());
+        					Interval interval = data.get(i).deactivate();
+        					if (interval != null)
+        					{
+        						store.storeInterval(interval);
+        					}
         					activeProject = null;
         				}
         				for (int i : change.getAddedSubList())
         				{
-        					System.out.println("Activating " + data.get(i).getName());
+        					log.debug("Activating {}", data.get(i).getName());
         					activeProject = data.get(i).activate();
         				}
         				store.storeTimexData(LocalDate.now(), data, activeProject);
@@ -1,35 +1,125 @@
 package jtimex;
 
 import java.time.Duration;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javafx.beans.property.SimpleStringProperty;
+import jtimex.store.Interval;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class Project 
 {
+	private static final Logger log = LoggerFactory.getLogger(Project.class);
+	
+	/**
+	 * The timing state of a project: the start time if it is active and
+	 * the duration accumulated before that. The start is also kept as a
+	 * reading of the monotonic clock, which the running duration is
+	 * measured from, so it does not jump when the wall clock is changed
+	 * or passes midnight. Instances are immutable and replaced atomically,
+	 * so the timer, the FX thread and the store always see a consistent
+	 * state.
+	 */
+	public static final class Timing
+	{
+		static final Timing STOPPED = new Timing(null, 0, Duration.ZERO);
+		
+		private final LocalTime startTime;
+		private final long startNanos;
+		private final Duration accumulated;
+		
+		Timing(LocalTime startTime, long startNanos, Duration accumulated)
+		{
+			this.startTime = startTime;
+			this.startNanos = startNanos;
+			this.accumulated = accumulated;
+		}
+		
+		public LocalTime getStartTime()
+		{
+			return startTime;
+		}
+		
+		public Duration getAccumulated()
+		{
+			return accumulated;
+		}
+		
+		public boolean isActive()
+		{
+			return startTime != null;
+		}
+		
+		/**
+		 * Returns the accumulated duration plus the time since the start
+		 * if active, given a reading of the project's monotonic clock.
+		 */
+		public Duration currentDuration(long nanoTime)
+		{
+			if (startTime == null)
+			{
+				return accumulated;
+			}
+			return accumulated.plusNanos(running(nanoTime));
+		}
+		
+		/**
+		 * Returns the current duration in whole seconds without allocating.
+		 */
+		public long currentSeconds(long nanoTime)
+		{
+			long nanos = accumulated.getSeconds() * NANOS_PER_SECOND + accumulated.getNano();
+			if (startTime != null)
+			{
+				nanos += running(nanoTime);
+			}
+			return Math.floorDiv(nanos, NANOS_PER_SECOND);
+		}
+		
+		private long running(long nanoTime)
+		{
+			return Math.max(0, nanoTime - startNanos);
+		}
+	}
+	
+	private static final long NANOS_PER_SECOND = 1000000000L;
 	
     private final SimpleStringProperty name;
     private final SimpleStringProperty duration;
-    private LocalTime startTime;
-    private Duration currentDuration = Duration.ZERO;
+    private final AtomicReference<Timing> timing;
+    private final TimeSource clock;
     private long projectId;
  
     public Project(String name) {
     	this(name, "00:00:00", null);
     }
 
+    public Project(String name, TimeSource clock)
+    {
+    	this(name, "00:00:00", null, clock);
+    }
+
     public Project(String name, String duration)
     {
     	this(name, duration, null);
     }
 
     public Project(String name, String duration, LocalTime startTime)
+    {
+    	this(name, duration, startTime, TimeSource.SYSTEM);
+    }
+
+    public Project(String name, String duration, LocalTime startTime, TimeSource clock)
     {
         this.name = new SimpleStringProperty(name);
         this.duration = new SimpleStringProperty(duration);
-        this.startTime = startTime;
+        this.clock = clock;
+        this.timing = new AtomicReference<>(Timing.STOPPED);
+        setStartTime(startTime);
     }
     
     public SimpleStringProperty nameProperty()
@@ -65,90 +155,156 @@ public class Project
 	
 	public void tick()
 	{
-		if (startTime != null)
+		Timing t = timing.get();
+		if (t.isActive())
 		{
-			Duration d = Duration.between(startTime, LocalTime.now()).plus(currentDuration);
-			setDuration(d);
+			setDuration(t.currentDuration(clock.nanoTime()));
 		}
 	}
 	
 	public Duration getCurrentDuration()
 	{
-		if (isActive())
-		{
-			return Duration.between(startTime, LocalTime.now()).plus(currentDuration);
-		}
-		else
-		{
-			return currentDuration;
-		}
+		return timing.get().currentDuration(clock.nanoTime());
+	}
+	
+	public TimeSource getTimeSource()
+	{
+		return clock;
+	}
+	
+	/**
+	 * Returns the current timing state, for callers that need the start
+	 * time and duration to agree.
+	 */
+	public Timing getTiming()
+	{
+		return timing.get();
 	}
 	
 	public void editDuration(String s)
 	{
-		Pattern p = Pattern.compile("(\\d\\d):(\\d\\d):(\\d\\d)");
-		Matcher m = p.matcher(s);
-		if (!m.matches())
-		{
-			throw new IllegalArgumentException("Invalid time");
-		}
-		int hours = Integer.parseInt(m.group(1));
-		int minutes = Integer.parseInt(m.group(2));
-		int seconds = Integer.parseInt(m.group(3));
-		Duration duration = Duration.ofSeconds(seconds)
-				.plus(Duration.ofMinutes(minutes))
-				.plus(Duration.ofHours(hours));
+		Duration duration = Duration.ofSeconds(DurationCodec.parseClock(s));
 		setCurrentDuration(duration);
 	}
 	
 	public Project activate()
 	{
-		if (!isActive())
-		{
-			startTime = LocalTime.now();
-		}
-		System.out.println("Activated project " + getName());
+		// the clock is read inside the update, so a retry uses a fresh time
+		timing.updateAndGet(t -> t.isActive() ? t 
+				: new Timing(clock.now().toLocalTime(), clock.nanoTime(), t.accumulated));
+		log.debug("Activated project {}", getName());
 		return this;
 	}
 
-	public void deactivate() 
+	/**
+	 * Stops the project and returns the interval it was active for, or
+	 * null if it was not active.
+	 */
+	public Interval deactivate() 
 	{
-		if (startTime != null)
+		Interval[] interval = new Interval[1];
+		timing.updateAndGet(t -> {
+			if (!t.isActive())
+			{
+				interval[0] = null;
+				return t;
+			}
+			long nanos = clock.nanoTime();
+			interval[0] = intervalOf(t, nanos, clock.now());
+			return new Timing(null, 0, t.currentDuration(nanos));
+		});
+		log.debug("Deactivated project {}", getName());
+		return interval[0];
+	}
+	
+	/**
+	 * Returns the running session as an interval ending at the given time,
+	 * or null if the project is not active or was started later.
+	 */
+	public Interval intervalTo(LocalDateTime end)
+	{
+		Timing t = timing.get();
+		if (!t.isActive())
 		{
-			currentDuration = Duration.between(startTime, LocalTime.now()).plus(currentDuration);
-			startTime = null;
+			return null;
 		}
-		System.out.println("Deactivated project " + getName());
+		long endNanos = clock.nanoTime() - Duration.between(end, clock.now()).toNanos();
+		Interval interval = intervalOf(t, endNanos, end);
+		return interval.getStart().isBefore(end) ? interval : null;
+	}
+	
+	private Interval intervalOf(Timing t, long endNanos, LocalDateTime end)
+	{
+		return new Interval(getName(), end.minusNanos(t.running(endNanos)), end);
 	}
 	
+	/**
+	 * Stops an active project at the end of the day its start time is on.
+	 */
 	public void endOfDay() 
 	{
-		if (startTime != null)
-		{
-			currentDuration = Duration.between(startTime, LocalTime.MAX);
-			startTime = null;
-		}
+		timing.updateAndGet(t -> t.isActive() 
+				? new Timing(null, 0, t.accumulated.plus(Duration.ofDays(1).minusNanos(t.startTime.toNanoOfDay()))) 
+				: t);
+	}
+	
+	/**
+	 * Closes the day that ends at the given midnight and returns the
+	 * project's duration for it. An active project keeps running from
+	 * midnight, with nothing accumulated for the new day.
+	 */
+	public Duration rollOver(LocalDateTime midnight)
+	{
+		Duration[] closed = new Duration[1];
+		timing.updateAndGet(t -> {
+			// the monotonic clock reading at midnight
+			long midnightNanos = clock.nanoTime() - Duration.between(midnight, clock.now()).toNanos();
+			if (!t.isActive())
+			{
+				closed[0] = t.accumulated;
+				return Timing.STOPPED;
+			}
+			if (t.startNanos >= midnightNanos)
+			{
+				closed[0] = t.accumulated;
+				return new Timing(t.startTime, t.startNanos, Duration.ZERO);
+			}
+			closed[0] = t.currentDuration(midnightNanos);
+			return new Timing(LocalTime.MIDNIGHT, midnightNanos, Duration.ZERO);
+		});
+		return closed[0];
 	}
 	
 	public void setCurrentDuration(Duration duration)
 	{
-		currentDuration = duration;
+		timing.updateAndGet(t -> new Timing(t.startTime, t.startNanos, duration));
 		setDuration(duration);
 	}
 	
+	/**
+	 * Sets the wall clock start time, e.g. when resuming a stored day. The
+	 * monotonic start is derived from the time that has passed since.
+	 */
 	public void setStartTime(LocalTime startTime)
 	{
-		this.startTime = startTime;
+		timing.updateAndGet(t -> {
+			if (startTime == null)
+			{
+				return new Timing(null, 0, t.accumulated);
+			}
+			long since = Duration.between(startTime, clock.now().toLocalTime()).toNanos();
+			return new Timing(startTime, clock.nanoTime() - since, t.accumulated);
+		});
 	}
 
 	public boolean isActive()
 	{
-		return (startTime != null);
+		return timing.get().isActive();
 	}
 
 	public LocalTime getStartTime() 
 	{
-		return startTime;
+		return timing.get().startTime;
 	}
 
 	public void setId(long id) 
@@ -163,12 +319,7 @@ public class Project
 	
 	public static String getDurationAsString(Duration d)
 	{
-		long hours = d.toHours();
-		long minutes = d.minusHours(hours).toMinutes();
-		long seconds = d.minusHours(hours).minusMinutes(minutes).getSeconds();
-
-		String nduration = String.format("%02d:%02d:%02d", hours, minutes, seconds);
-		return nduration;
+		return DurationCodec.format(d);
 	}
 
 }
@@ -6,11 +6,17 @@ import java.io.IOException;
 import java.time.DayOfWeek;
 import java.time.Duration;
 import java.time.LocalDate;
+import java.time.format.TextStyle;
 import java.time.temporal.TemporalAdjusters;
+import java.util.HashSet;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -24,13 +30,17 @@ import javafx.scene.control.Label;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ScrollPane;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextArea;
+import javafx.scene.control.Tooltip;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import javafx.stage.FileChooser;
 import javafx.stage.Modality;
@@ -39,11 +49,14 @@ import javafx.util.Callback;
 import jtimex.store.DataStore;
 
 import org.controlsfx.dialog.Dialogs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.eclipsesource.json.JsonObject;
 
 public class ReportBuilder 
 {
+	private static final Logger log = LoggerFactory.getLogger(ReportBuilder.class);
 	public static void openReportDialog(final DataStore store)
 	{
     	Stage stage = new Stage();
@@ -143,7 +156,9 @@ public class ReportBuilder
     		    FXCollections.observableArrayList(
     		        "Table",
     		        "CSV",
-    		        "JSON"
+    		        "Daily CSV",
+    		        "JSON",
+    		        "Heatmap"
     		    );
     	final ComboBox<String> formatCB = new ComboBox<>(formatOptions);
     	formatCB.getSelectionModel().select(0);
@@ -166,6 +181,16 @@ public class ReportBuilder
                     .message("Please enter a valid date range.")
                     .showError();
             	}
+            	else if (format.equals("Daily CSV"))
+            	{
+            		displayReportAsText(generateDailyCSV(store, startDate, endDate));
+	            	stage.close();
+            	}
+            	else if (format.equals("Heatmap"))
+            	{
+            		displayHeatmap(store, startDate, endDate);
+	            	stage.close();
+            	}
             	else
             	{
 	            	Map<String, Duration> report = store.report(startDate, endDate);
@@ -220,18 +245,113 @@ public class ReportBuilder
 		StringBuilder builder = new StringBuilder();
 		report.forEach((n,d) -> {
 			builder.append(n).append(",");
-			builder.append(Project.getDurationAsString(d));
+			builder.append(DurationCodec.format(d));
 			builder.append("\n");
 		});
 		return builder.toString(); 
 	}
 
+	/**
+	 * Writes one line per project and day, streamed from the store.
+	 */
+	private static String generateDailyCSV(DataStore store, LocalDate startDate, LocalDate endDate)
+	{
+		StringBuilder builder = new StringBuilder();
+		store.streamReport(startDate, endDate, (date, project, seconds) -> {
+			builder.append(date).append(",");
+			builder.append(project).append(",");
+			builder.append(DurationCodec.format(Duration.ofSeconds(seconds)));
+			builder.append("\n");
+			return true;
+		});
+		return builder.toString();
+	}
+
+	/**
+	 * Computes the heatmap in the background, in one pass over the stored
+	 * intervals, and shows it when done. The intervals carry the names of
+	 * their projects, including those that were deleted since.
+	 */
+	private static void displayHeatmap(DataStore store, LocalDate startDate, LocalDate endDate)
+	{
+		Set<String> listed = new HashSet<>();
+		Task<Heatmap> task = new Task<Heatmap>() {
+			@Override
+			protected Heatmap call()
+			{
+				Heatmap heatmap = new Heatmap();
+				store.streamIntervals(startDate, endDate, heatmap);
+				store.readProjects().forEach(p -> listed.add(p.getName()));
+				return heatmap;
+			}
+		};
+		task.setOnSucceeded(e -> displayHeatmap(startDate, endDate, task.getValue(), listed));
+		task.setOnFailed(e -> log.error("Heatmap failed", task.getException()));
+		Thread thread = new Thread(task, "jtimex-heatmap");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Shows a grid of day of the week by hour of the day for each project,
+	 * shaded by the time tracked relative to the busiest cell. Projects
+	 * that are not listed are marked as deleted.
+	 */
+	public static void displayHeatmap(LocalDate startDate, LocalDate endDate,
+			Heatmap heatmap, Set<String> listed)
+	{
+		final Label dates = new Label("Start: " + startDate + ", end: " + endDate);
+		dates.setPadding(new Insets(10));
+		VBox vbox = new VBox(dates);
+		if (heatmap.getProjects().isEmpty())
+		{
+			vbox.getChildren().add(new Label("No intervals recorded in this range"));
+		}
+		double max = Math.max(1, heatmap.getMax());
+		new TreeMap<>(heatmap.getProjects()).forEach((name, table) -> {
+			GridPane grid = new GridPane();
+			grid.setHgap(1);
+			grid.setVgap(1);
+			grid.setPadding(new Insets(5, 10, 10, 10));
+			for (int hour=0; hour<24; hour++)
+			{
+				grid.add(new Label(hour % 3 == 0 ? Integer.toString(hour) : ""), hour + 1, 0);
+			}
+			for (int day=0; day<7; day++)
+			{
+				grid.add(new Label(DayOfWeek.of(day + 1).getDisplayName(TextStyle.SHORT, Locale.getDefault()) + " "), 0, day + 1);
+				for (int hour=0; hour<24; hour++)
+				{
+					Region cell = new Region();
+					cell.setPrefSize(14, 14);
+					cell.setStyle("-fx-background-color: " + toWeb(Color.WHITE.interpolate(Color.DARKGREEN, table[day][hour] / max)));
+					Tooltip.install(cell, new Tooltip(DurationCodec.format(Duration.ofSeconds(table[day][hour]))));
+					grid.add(cell, hour + 1, day + 1);
+				}
+			}
+			Label label = new Label(listed.contains(name) ? name : name + " (deleted)");
+			label.setPadding(new Insets(5, 10, 0, 10));
+			vbox.getChildren().addAll(label, grid);
+		});
+		Stage stage = new Stage();
+		Scene scene = new Scene(new ScrollPane(vbox));
+		stage.setScene(scene);
+		stage.initModality(Modality.WINDOW_MODAL);
+		stage.show();
+	}
+
+	private static String toWeb(Color color)
+	{
+		return String.format("#%02x%02x%02x", 
+				(int)(color.getRed() * 255), (int)(color.getGreen() * 255), (int)(color.getBlue() * 255));
+	}
+
 	private static JsonObject generateJSON(LocalDate startDate,
 			LocalDate endDate, Map<String, Duration> report) 
 	{
 		JsonObject obj = new JsonObject();
 		report.forEach((n,d) -> {
-			obj.add(n, Project.getDurationAsString(d));
+			obj.add(n, DurationCodec.format(d));
 		});
 		return obj;
 	}
@@ -283,7 +403,6 @@ public class ReportBuilder
         menuJson.setOnAction(new EventHandler<ActionEvent>() {
         	public void handle(ActionEvent t) {
         		JsonObject obj = generateJSON(startDate, endDate, report);
-        		System.out.println(obj.toString());
         		writeToFile(obj.toString(), stage);
         	}
         });     
@@ -400,7 +519,7 @@ public class ReportBuilder
 		} 
 		catch (IOException e) 
 		{
-			System.out.println("Could not write file " + file);
+			log.warn("Could not write file {}: {}", file, e.getMessage());
 		}
 	}
 	
@@ -0,0 +1,29 @@
+package jtimex;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs how long each startup phase took, and the time since launch, so
+ * that the time to first paint can be tracked.
+ */
+public class StartupTimer
+{
+	private static final Logger log = LoggerFactory.getLogger(StartupTimer.class);
+	private final long start = System.nanoTime();
+	private long last = start;
+
+	public synchronized void phase(String name)
+	{
+		long now = System.nanoTime();
+		if (log.isInfoEnabled())
+		{
+			log.info("Startup: {} took {} ms ({} ms since launch)", new Object[] {
+					name, TimeUnit.NANOSECONDS.toMillis(now - last), TimeUnit.NANOSECONDS.toMillis(now - start) });
+		}
+		last = now;
+	}
+
+}
@@ -0,0 +1,104 @@
+package jtimex;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javafx.application.Platform;
+
+/**
+ * Updates the displayed duration of the active project on the FX thread
+ * once per second, at the wall clock second boundary. The display is only
+ * set when the shown second changes, and the text is formatted into a
+ * reused buffer. Only the monotonic clock is read on each tick. Ticking
+ * can be paused, e.g. while the window is minimised.
+ * <p>
+ * An AnimationTimer or Timeline would keep the pulse running at 60 Hz
+ * while the tracker is running, so a single scheduled task posts the
+ * update to the FX thread instead.
+ */
+public class Ticker
+{
+	private final Supplier<Project> activeProject;
+	private final ScheduledExecutorService scheduler;
+	private final Runnable post;
+	private final StringBuilder buffer = new StringBuilder(16);
+
+	private ScheduledFuture<?> ticks;
+	// the last value displayed, only accessed on the FX thread
+	private Project shownProject;
+	private long shownSeconds = -1;
+
+	public Ticker(Supplier<Project> activeProject)
+	{
+		this.activeProject = activeProject;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "jtimex-ticker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Runnable update = this::update;
+		this.post = () -> Platform.runLater(update);
+	}
+
+	/**
+	 * Starts or resumes ticking. The display is brought up to date
+	 * straight away.
+	 */
+	public synchronized void start()
+	{
+		if (ticks != null)
+		{
+			return;
+		}
+		long delay = 1000 - System.currentTimeMillis() % 1000;
+		post.run();
+		ticks = scheduler.scheduleAtFixedRate(post, delay, 1000, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void pause()
+	{
+		if (ticks != null)
+		{
+			ticks.cancel(false);
+			ticks = null;
+		}
+	}
+
+	public void shutdown()
+	{
+		pause();
+		scheduler.shutdown();
+	}
+
+	/**
+	 * Runs on the FX thread.
+	 */
+	void update()
+	{
+		Project project = activeProject.get();
+		if (project == null)
+		{
+			shownProject = null;
+			return;
+		}
+		Project.Timing timing = project.getTiming();
+		if (!timing.isActive())
+		{
+			return;
+		}
+		long seconds = timing.currentSeconds(project.getTimeSource().nanoTime());
+		if (project == shownProject && seconds == shownSeconds)
+		{
+			return;
+		}
+		buffer.setLength(0);
+		DurationCodec.format(seconds, buffer);
+		project.setDuration(buffer.toString());
+		shownProject = project;
+		shownSeconds = seconds;
+	}
+
+}
@@ -0,0 +1,34 @@
+package jtimex;
+
+import java.time.LocalDateTime;
+
+/**
+ * The clocks used for tracking: a monotonic clock for measuring how long
+ * a project has been running and the wall clock for start times and day
+ * boundaries. Tests replace it with a clock they can move.
+ */
+public interface TimeSource
+{
+	TimeSource SYSTEM = new TimeSource()
+	{
+		@Override
+		public long nanoTime()
+		{
+			return System.nanoTime();
+		}
+
+		@Override
+		public LocalDateTime now()
+		{
+			return LocalDateTime.now();
+		}
+	};
+
+	/**
+	 * Returns the monotonic time in nanos, only meaningful as a difference.
+	 */
+	long nanoTime();
+
+	LocalDateTime now();
+
+}
@@ -0,0 +1,252 @@
+package jtimex.store;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import jtimex.Project;
+
+/**
+ * Keeps the most recently loaded days in a bounded LRU cache so that
+ * navigating back and forth between days does not go to the underlying
+ * store. Storing a day replaces its cached record. Days can also be
+ * loaded ahead of time with {@link #prefetch(LocalDate)}.
+ */
+public class CachingStore implements DataStore
+{
+	private final DataStore store;
+	private final Map<LocalDate, DayRecord> cache;
+	// cached days that were prefetched and not read yet
+	private final Set<LocalDate> prefetched = new HashSet<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong prefetchHits = new AtomicLong();
+
+	public CachingStore(DataStore store)
+	{
+		this(store, 64);
+	}
+
+	public CachingStore(DataStore store, int capacity)
+	{
+		this.store = store;
+		this.cache = new LinkedHashMap<LocalDate, DayRecord>(capacity, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<LocalDate, DayRecord> eldest)
+			{
+				if (size() > capacity)
+				{
+					prefetched.remove(eldest.getKey());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	@Override
+	public void init()
+	{
+		store.init();
+	}
+
+	@Override
+	public void shutdown()
+	{
+		store.shutdown();
+	}
+
+	@Override
+	public DayRecord loadDay(LocalDate date)
+	{
+		synchronized (cache)
+		{
+			DayRecord record = cache.get(date);
+			if (record != null)
+			{
+				hits.incrementAndGet();
+				if (prefetched.remove(date))
+				{
+					prefetchHits.incrementAndGet();
+				}
+				return record;
+			}
+		}
+		misses.incrementAndGet();
+		DayRecord record = store.loadDay(date);
+		synchronized (cache)
+		{
+			// don't overwrite a record stored while we were loading
+			cache.putIfAbsent(date, record);
+		}
+		return record;
+	}
+
+	/**
+	 * Loads the given day into the cache, unless it is cached already.
+	 */
+	public void prefetch(LocalDate date)
+	{
+		synchronized (cache)
+		{
+			if (cache.containsKey(date))
+			{
+				return;
+			}
+		}
+		DayRecord record = store.loadDay(date);
+		synchronized (cache)
+		{
+			if (cache.putIfAbsent(date, record) == null)
+			{
+				prefetched.add(date);
+			}
+		}
+	}
+
+	public boolean isCached(LocalDate date)
+	{
+		synchronized (cache)
+		{
+			return cache.containsKey(date);
+		}
+	}
+
+	@Override
+	public void storeDay(DayRecord record)
+	{
+		store.storeDay(record);
+		synchronized (cache)
+		{
+			cache.put(record.getDate(), record);
+			prefetched.remove(record.getDate());
+		}
+	}
+
+	@Override
+	public void storeDays(Collection<DayRecord> records)
+	{
+		store.storeDays(records);
+		synchronized (cache)
+		{
+			records.forEach(r -> {
+				cache.put(r.getDate(), r);
+				prefetched.remove(r.getDate());
+			});
+		}
+	}
+
+	public void invalidate(LocalDate date)
+	{
+		synchronized (cache)
+		{
+			cache.remove(date);
+			prefetched.remove(date);
+		}
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of prefetched days that were read afterwards.
+	 */
+	public long getPrefetchHits()
+	{
+		return prefetchHits.get();
+	}
+
+	@Override
+	public List<Project> readProjects()
+	{
+		return store.readProjects();
+	}
+
+	@Override
+	public Project findProject(String name)
+	{
+		return store.findProject(name);
+	}
+
+	@Override
+	public void add(Project project)
+	{
+		store.add(project);
+	}
+
+	@Override
+	public void remove(Project project)
+	{
+		store.remove(project);
+	}
+
+	@Override
+	public void rename(Project project, String name)
+	{
+		store.rename(project, name);
+		synchronized (cache)
+		{
+			cache.clear();
+			prefetched.clear();
+		}
+	}
+
+	@Override
+	public List<DayRecord> loadRange(LocalDate startDate, LocalDate endDate)
+	{
+		return store.loadRange(startDate, endDate);
+	}
+
+	@Override
+	public Map<String, Duration> report(LocalDate startDate, LocalDate endDate)
+	{
+		return store.report(startDate, endDate);
+	}
+
+	@Override
+	public void streamReport(LocalDate startDate, LocalDate endDate, ReportConsumer consumer)
+	{
+		store.streamReport(startDate, endDate, consumer);
+	}
+
+	@Override
+	public void series(String project, LocalDate startDate, LocalDate endDate, long[] seconds)
+	{
+		store.series(project, startDate, endDate, seconds);
+	}
+
+	@Override
+	public void storeInterval(Interval interval)
+	{
+		store.storeInterval(interval);
+	}
+
+	@Override
+	public List<Interval> loadIntervals(LocalDate startDate, LocalDate endDate)
+	{
+		return store.loadIntervals(startDate, endDate);
+	}
+
+	@Override
+	public void streamIntervals(LocalDate startDate, LocalDate endDate, Consumer<Interval> consumer)
+	{
+		store.streamIntervals(startDate, endDate, consumer);
+	}
+
+}
@@ -0,0 +1,584 @@
+package jtimex.store;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.Year;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jtimex.Project;
+
+/**
+ * A data store that keeps one dense matrix of seconds per year, indexed by
+ * day of the year and project id. Project names are interned into integer
+ * ids. Each year is a memory-mapped file, so the matrix lives off-heap and
+ * a range report is a primitive loop over contiguous rows.
+ * <p>
+ * Year file layout: a 16 byte header (magic, stride), the active project
+ * and start time of each day (16 bytes per day), a presence bitmap of the
+ * projects recorded on each day, then the matrix of seconds with one row
+ * of stride longs per day. The stride is the project capacity and grows
+ * by doubling; each year file is rewritten to the new stride when it is
+ * next opened.
+ */
+public class ColumnarStore implements DataStore
+{
+	private static final int MAGIC = 0x4a545843;
+	private static final int DAYS = 366;
+	private static final int HEADER = 16;
+	private static final int ACTIVE_SIZE = 16;
+	private static final int INITIAL_STRIDE = 64;
+
+	private String dir = "target/timex-columns";
+
+	// interned project names, ids start at 1
+	private final List<String> names = new ArrayList<>();
+	private final Map<String, Integer> ids = new HashMap<>();
+	private final Set<Integer> listed = new LinkedHashSet<>();
+	private int stride = INITIAL_STRIDE;
+
+	private final Map<Integer, MappedByteBuffer> years = new HashMap<>();
+
+	public ColumnarStore()
+	{
+	}
+
+	public ColumnarStore(String dir)
+	{
+		this.dir = dir;
+	}
+
+	@Override
+	public synchronized void init()
+	{
+		new File(dir).mkdirs();
+		names.add(null);
+		try
+		{
+			readProjectFile();
+		}
+		catch (IOException e)
+		{
+			InitialisationFailed exc = new InitialisationFailed();
+			exc.initCause(e);
+			throw exc;
+		}
+		while (stride < names.size())
+		{
+			stride *= 2;
+		}
+	}
+
+	@Override
+	public synchronized void shutdown()
+	{
+		years.values().forEach(MappedByteBuffer::force);
+		years.clear();
+	}
+
+	private File projectFile()
+	{
+		return new File(dir, "projects");
+	}
+
+	private void readProjectFile() throws IOException
+	{
+		File file = projectFile();
+		if (!file.exists())
+		{
+			return;
+		}
+		try ( DataInputStream in = new DataInputStream(new FileInputStream(file)) )
+		{
+			int count = in.readInt();
+			for (int id=1; id<=count; id++)
+			{
+				boolean isListed = in.readBoolean();
+				String name = in.readUTF();
+				names.add(name);
+				ids.put(name, id);
+				if (isListed)
+				{
+					listed.add(id);
+				}
+			}
+		}
+	}
+
+	private void writeProjectFile()
+	{
+		File tmp = new File(dir, "projects.tmp");
+		try ( DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp)) )
+		{
+			out.writeInt(names.size() - 1);
+			for (int id=1; id<names.size(); id++)
+			{
+				out.writeBoolean(listed.contains(id));
+				out.writeUTF(names.get(id));
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Failed to write project file", e);
+		}
+		replace(tmp, projectFile());
+	}
+
+	private static void replace(File tmp, File file)
+	{
+		try
+		{
+			Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Failed to replace " + file, e);
+		}
+	}
+
+	/**
+	 * Returns the id of the named project, interning it unlisted if it is
+	 * not known yet.
+	 */
+	private int idOf(String name)
+	{
+		Integer id = ids.get(name);
+		if (id == null)
+		{
+			id = names.size();
+			names.add(name);
+			ids.put(name, id);
+			if (id >= stride)
+			{
+				grow();
+			}
+			writeProjectFile();
+		}
+		return id;
+	}
+
+	// ---- year files
+
+	private static int presenceOffset()
+	{
+		return HEADER + DAYS * ACTIVE_SIZE;
+	}
+
+	private static int matrixOffset(int stride)
+	{
+		return presenceOffset() + DAYS * (stride / 64) * 8;
+	}
+
+	private static int fileSize(int stride)
+	{
+		return matrixOffset(stride) + DAYS * stride * 8;
+	}
+
+	private File yearFile(int year)
+	{
+		return new File(dir, year + ".cols");
+	}
+
+	/**
+	 * Returns the mapped file for the given year, or null if there is none
+	 * and create is not set.
+	 */
+	private MappedByteBuffer year(int year, boolean create)
+	{
+		MappedByteBuffer buffer = years.get(year);
+		if (buffer != null)
+		{
+			return buffer;
+		}
+		File file = yearFile(year);
+		if (!file.exists() && !create)
+		{
+			return null;
+		}
+		try ( RandomAccessFile raf = new RandomAccessFile(file, "rw") )
+		{
+			boolean isNew = raf.length() == 0;
+			int size = isNew ? fileSize(stride) : (int)raf.length();
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Failed to map " + file, e);
+		}
+		if (buffer.getInt(0) != MAGIC)
+		{
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, stride);
+		}
+		else if (buffer.getInt(4) != stride)
+		{
+			buffer = restride(year, buffer);
+		}
+		years.put(year, buffer);
+		return buffer;
+	}
+
+	/**
+	 * Doubles the project capacity. The mapped years are dropped, and
+	 * {@link #year(int, boolean)} restrides each file as it is opened, so
+	 * storing a day only rewrites the year it is in.
+	 */
+	private void grow()
+	{
+		stride *= 2;
+		years.clear();
+	}
+
+	private MappedByteBuffer restride(int year, MappedByteBuffer old)
+	{
+		int oldStride = old.getInt(4);
+		File file = yearFile(year);
+		File tmp = new File(dir, year + ".tmp");
+		MappedByteBuffer buffer;
+		try ( RandomAccessFile raf = new RandomAccessFile(tmp, "rw") )
+		{
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize(stride));
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Failed to resize " + file, e);
+		}
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, stride);
+		for (int i=HEADER; i<presenceOffset(); i++)
+		{
+			buffer.put(i, old.get(i));
+		}
+		for (int day=0; day<DAYS; day++)
+		{
+			for (int w=0; w<oldStride/64; w++)
+			{
+				buffer.putLong(presenceOffset() + (day * (stride/64) + w) * 8,
+						old.getLong(presenceOffset() + (day * (oldStride/64) + w) * 8));
+			}
+			for (int p=0; p<oldStride; p++)
+			{
+				buffer.putLong(matrixOffset(stride) + (day * stride + p) * 8,
+						old.getLong(matrixOffset(oldStride) + (day * oldStride + p) * 8));
+			}
+		}
+		buffer.force();
+		replace(tmp, file);
+		return buffer;
+	}
+
+	private int presenceWord(int day, int projectId)
+	{
+		return presenceOffset() + (day * (stride / 64) + projectId / 64) * 8;
+	}
+
+	private int cell(int day, int projectId)
+	{
+		return matrixOffset(stride) + (day * stride + projectId) * 8;
+	}
+
+	// ---- DataStore
+
+	@Override
+	public synchronized List<Project> readProjects()
+	{
+		List<Project> projects = new ArrayList<>();
+		for (int id : listed)
+		{
+			Project project = new Project(names.get(id));
+			project.setId(id);
+			projects.add(project);
+		}
+		return projects;
+	}
+
+	@Override
+	public synchronized Project findProject(String name)
+	{
+		Integer id = ids.get(name);
+		if (id == null || !listed.contains(id))
+		{
+			return null;
+		}
+		Project project = new Project(name);
+		project.setId(id);
+		return project;
+	}
+
+	@Override
+	public synchronized void add(Project project)
+	{
+		int id = idOf(project.getName());
+		if (listed.add(id))
+		{
+			writeProjectFile();
+		}
+		project.setId(id);
+	}
+
+	@Override
+	public synchronized void remove(Project project)
+	{
+		Integer id = ids.get(project.getName());
+		if (id != null && listed.remove(id))
+		{
+			writeProjectFile();
+		}
+	}
+
+	@Override
+	public synchronized void rename(Project project, String name)
+	{
+		Integer existing = ids.get(name);
+		if (existing != null)
+		{
+			throw DataStore.nameTaken(name, listed.contains(existing));
+		}
+		Integer id = ids.remove(project.getName());
+		if (id != null)
+		{
+			names.set(id, name);
+			ids.put(name, id);
+			writeProjectFile();
+		}
+	}
+
+	@Override
+	public synchronized void storeDay(DayRecord record)
+	{
+		Map<Integer, Long> seconds = new LinkedHashMap<>();
+		record.getDurations().forEach((name, duration) -> seconds.put(idOf(name), duration.getSeconds()));
+		int activeId = record.getActiveName() == null ? 0 : idOf(record.getActiveName());
+
+		LocalDate date = record.getDate();
+		MappedByteBuffer buffer = year(date.getYear(), true);
+		int day = date.getDayOfYear() - 1;
+		for (int w=0; w<stride/64; w++)
+		{
+			buffer.putLong(presenceOffset() + (day * (stride/64) + w) * 8, 0L);
+		}
+		for (int p=0; p<stride; p++)
+		{
+			buffer.putLong(cell(day, p), 0L);
+		}
+		seconds.forEach((id, value) -> {
+			int word = presenceWord(day, id);
+			buffer.putLong(word, buffer.getLong(word) | (1L << (id % 64)));
+			buffer.putLong(cell(day, id), value);
+		});
+		int active = HEADER + day * ACTIVE_SIZE;
+		buffer.putInt(active, activeId);
+		// -1 if the active project was never started
+		buffer.putLong(active + 8, activeId == 0 || record.getStartTime() == null ?
+				-1 : record.getStartTime().toNanoOfDay());
+		// the cells and the active project, the cleared row is not counted
+		StoreCounters.written(seconds.size() + 1);
+	}
+
+	@Override
+	public synchronized DayRecord loadDay(LocalDate date)
+	{
+		MappedByteBuffer buffer = year(date.getYear(), false);
+		if (buffer == null)
+		{
+			return DayRecord.empty(date);
+		}
+		return readDay(buffer, date);
+	}
+
+	private DayRecord readDay(MappedByteBuffer buffer, LocalDate date)
+	{
+		StoreCounters.scanned(1);
+		int day = date.getDayOfYear() - 1;
+		Map<String, Duration> durations = new LinkedHashMap<>();
+		for (int id=1; id<names.size(); id++)
+		{
+			if ((buffer.getLong(presenceWord(day, id)) & (1L << (id % 64))) != 0)
+			{
+				durations.put(names.get(id), Duration.ofSeconds(buffer.getLong(cell(day, id))));
+			}
+		}
+		int active = HEADER + day * ACTIVE_SIZE;
+		int activeId = buffer.getInt(active);
+		if (activeId == 0)
+		{
+			return new DayRecord(date, durations, null, null);
+		}
+		long startNanos = buffer.getLong(active + 8);
+		return new DayRecord(date, durations, names.get(activeId),
+				startNanos < 0 ? null : LocalTime.ofNanoOfDay(startNanos));
+	}
+
+	@Override
+	public synchronized List<DayRecord> loadRange(LocalDate startDate, LocalDate endDate)
+	{
+		List<DayRecord> records = new ArrayList<>();
+		for (LocalDate date = startDate; !date.isAfter(endDate); date = date.plusDays(1))
+		{
+			MappedByteBuffer buffer = year(date.getYear(), false);
+			if (buffer == null)
+			{
+				date = LocalDate.of(date.getYear(), 12, 31);
+				continue;
+			}
+			DayRecord record = readDay(buffer, date);
+			if (!record.getDurations().isEmpty())
+			{
+				records.add(record);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Sums the rows of the matrix for the given range. Each row is copied
+	 * into a long array and added to the totals with a plain loop that the
+	 * JIT can vectorise.
+	 */
+	@Override
+	public synchronized Map<String, Duration> report(LocalDate startDate, LocalDate endDate)
+	{
+		long[] totals = new long[stride];
+		long[] seen = new long[stride / 64];
+		long[] row = new long[stride];
+		for (int year = startDate.getYear(); year <= endDate.getYear(); year++)
+		{
+			MappedByteBuffer buffer = year(year, false);
+			if (buffer == null)
+			{
+				continue;
+			}
+			int first = year == startDate.getYear() ? startDate.getDayOfYear() - 1 : 0;
+			int last = year == endDate.getYear() ? endDate.getDayOfYear() - 1 : Year.of(year).length() - 1;
+			buffer.position(matrixOffset(stride) + first * stride * 8);
+			LongBuffer matrix = buffer.asLongBuffer();
+			buffer.position(presenceOffset() + first * (stride / 64) * 8);
+			LongBuffer presence = buffer.asLongBuffer();
+			buffer.position(0);
+			StoreCounters.scanned(last - first + 1);
+			for (int day = first; day <= last; day++)
+			{
+				matrix.get(row);
+				for (int p=0; p<stride; p++)
+				{
+					totals[p] += row[p];
+				}
+				for (int w=0; w<seen.length; w++)
+				{
+					seen[w] |= presence.get();
+				}
+			}
+		}
+		Map<String, Duration> durations = new HashMap<>();
+		for (int id=1; id<names.size(); id++)
+		{
+			if ((seen[id / 64] & (1L << (id % 64))) != 0)
+			{
+				durations.put(names.get(id), Duration.ofSeconds(totals[id]));
+			}
+		}
+		return durations;
+	}
+
+	/**
+	 * Walks the presence bitmap of each day in the range and reads the
+	 * cells of the projects recorded on it.
+	 */
+	@Override
+	public synchronized void streamReport(LocalDate startDate, LocalDate endDate, ReportConsumer consumer)
+	{
+		int scanned = 0;
+		try
+		{
+			for (int year = startDate.getYear(); year <= endDate.getYear(); year++)
+			{
+				MappedByteBuffer buffer = year(year, false);
+				if (buffer == null)
+				{
+					continue;
+				}
+				int first = year == startDate.getYear() ? startDate.getDayOfYear() - 1 : 0;
+				int last = year == endDate.getYear() ? endDate.getDayOfYear() - 1 : Year.of(year).length() - 1;
+				for (int day = first; day <= last; day++)
+				{
+					scanned++;
+					LocalDate date = null;
+					for (int w=0; w<stride/64; w++)
+					{
+						long word = buffer.getLong(presenceOffset() + (day * (stride/64) + w) * 8);
+						while (word != 0)
+						{
+							int id = w * 64 + Long.numberOfTrailingZeros(word);
+							word &= word - 1;
+							if (date == null)
+							{
+								date = Year.of(year).atDay(day + 1);
+							}
+							if (!consumer.accept(date, names.get(id), buffer.getLong(cell(day, id))))
+							{
+								return;
+							}
+						}
+					}
+				}
+			}
+		}
+		finally
+		{
+			StoreCounters.scanned(scanned);
+		}
+	}
+
+	/**
+	 * Reads the project's column of each year in the range.
+	 */
+	@Override
+	public synchronized void series(String project, LocalDate startDate, LocalDate endDate, long[] seconds)
+	{
+		int length = DataStore.seriesLength(startDate, endDate, seconds);
+		Arrays.fill(seconds, 0, length, 0L);
+		Integer id = ids.get(project);
+		if (id == null)
+		{
+			return;
+		}
+		int i = 0;
+		for (int year = startDate.getYear(); year <= endDate.getYear(); year++)
+		{
+			int first = year == startDate.getYear() ? startDate.getDayOfYear() - 1 : 0;
+			int last = year == endDate.getYear() ? endDate.getDayOfYear() - 1 : Year.of(year).length() - 1;
+			MappedByteBuffer buffer = year(year, false);
+			if (buffer == null)
+			{
+				i += last - first + 1;
+				continue;
+			}
+			StoreCounters.scanned(last - first + 1);
+			for (int day = first; day <= last; day++)
+			{
+				seconds[i++] = buffer.getLong(cell(day, id));
+			}
+		}
+	}
+
+}
@@ -2,8 +2,16 @@ package jtimex.store;
 
 import java.time.Duration;
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import jtimex.Project;
 
@@ -11,16 +19,192 @@ public interface DataStore
 {
 	void init();
 	
+	void shutdown();
+	
 	List<Project> readProjects();
 	
+	/**
+	 * Returns the listed project with the given name, or null.
+	 */
+	default Project findProject(String name)
+	{
+		for (Project project : readProjects())
+		{
+			if (project.getName().equals(name))
+			{
+				return project;
+			}
+		}
+		return null;
+	}
+	
     void add(Project project);
     
     void remove(Project project);
     
-    void storeTimexData(LocalDate date, List<Project> projects, Project activeProject);
+    /**
+     * Renames the project, keeping its recorded history. Throws an
+     * IllegalArgumentException if another project has that name.
+     */
+    void rename(Project project, String name);
+    
+    void storeDay(DayRecord record);
+    
+    default void storeDays(Collection<DayRecord> records)
+    {
+    	records.forEach(this::storeDay);
+    }
+    
+    DayRecord loadDay(LocalDate date);
+    
+    default void storeTimexData(LocalDate date, List<Project> projects, Project activeProject)
+    {
+    	storeDay(DayRecord.of(date, projects, activeProject));
+    }
+    
+    default Project loadTimexData(LocalDate date, List<Project> projects, boolean active)
+    {
+    	return loadDay(date).applyTo(projects, active);
+    }
+    
+    List<DayRecord> loadRange(LocalDate startDate, LocalDate endDate);
+    
+    /**
+     * Records an interval during which a project was tracked. Stores that
+     * only keep daily totals ignore it.
+     */
+    default void storeInterval(Interval interval)
+    {
+    }
+    
+    /**
+     * Returns the recorded intervals that start on a day of the range.
+     */
+    default List<Interval> loadIntervals(LocalDate startDate, LocalDate endDate)
+    {
+    	return Collections.emptyList();
+    }
+    
+    /**
+     * Pushes the recorded intervals that start on a day of the range to
+     * the consumer, in the order they were stored.
+     */
+    default void streamIntervals(LocalDate startDate, LocalDate endDate, Consumer<Interval> consumer)
+    {
+    	loadIntervals(startDate, endDate).forEach(consumer);
+    }
+    
+    /**
+     * Pushes the recorded seconds of each project on each day of the range
+     * to the consumer, in date order, until the consumer returns false.
+     * The default implementation loads one month at a time.
+     */
+    default void streamReport(LocalDate startDate, LocalDate endDate, ReportConsumer consumer)
+    {
+    	LocalDate date = startDate;
+    	while (!date.isAfter(endDate))
+    	{
+    		LocalDate monthEnd = date.with(TemporalAdjusters.lastDayOfMonth());
+    		if (monthEnd.isAfter(endDate))
+    		{
+    			monthEnd = endDate;
+    		}
+    		for (DayRecord record : loadRange(date, monthEnd))
+    		{
+    			for (Map.Entry<String, Duration> entry : record.getDurations().entrySet())
+    			{
+    				if (!consumer.accept(record.getDate(), entry.getKey(), entry.getValue().getSeconds()))
+    				{
+    					return;
+    				}
+    			}
+    		}
+    		date = monthEnd.plusDays(1);
+    	}
+    }
+    
+    /**
+     * Returns the total duration of each project in the range (inclusive),
+     * collected from {@link #streamReport(LocalDate, LocalDate, ReportConsumer)}.
+     */
+    default Map<String, Duration> report(LocalDate startDate, LocalDate endDate)
+    {
+    	Map<String, Long> totals = new HashMap<>();
+    	streamReport(startDate, endDate, (date, project, seconds) -> {
+    		totals.merge(project, seconds, Long::sum);
+    		return true;
+    	});
+    	Map<String, Duration> durations = new HashMap<>();
+    	totals.forEach((project, seconds) -> durations.put(project, Duration.ofSeconds(seconds)));
+    	return durations;
+    }
+    
+    /**
+     * Fills the array with the seconds spent on the named project on each
+     * day of the range, indexed by days since the start date. Days without
+     * a record are zero.
+     */
+    default void series(String project, LocalDate startDate, LocalDate endDate, long[] seconds)
+    {
+    	int days = seriesLength(startDate, endDate, seconds);
+    	Arrays.fill(seconds, 0, days, 0L);
+    	for (DayRecord record : loadRange(startDate, endDate))
+    	{
+    		Duration duration = record.getDurations().get(project);
+    		if (duration != null)
+    		{
+    			seconds[(int)ChronoUnit.DAYS.between(startDate, record.getDate())] = duration.getSeconds();
+    		}
+    	}
+    }
+    
+    default long[] series(String project, LocalDate startDate, LocalDate endDate)
+    {
+    	long[] seconds = new long[(int)ChronoUnit.DAYS.between(startDate, endDate) + 1];
+    	series(project, startDate, endDate, seconds);
+    	return seconds;
+    }
+    
+    /**
+     * Returns the day by day series of each of the named projects.
+     */
+    default Map<String, long[]> series(Collection<String> projects, LocalDate startDate, LocalDate endDate)
+    {
+    	Map<String, long[]> series = new LinkedHashMap<>();
+    	for (String project : projects)
+    	{
+    		series.put(project, series(project, startDate, endDate));
+    	}
+    	return series;
+    }
     
-    Project loadTimexData(LocalDate date, List<Project> projects, boolean active);
+    /**
+     * Returns the number of days in the range, checking that the array
+     * can hold them.
+     */
+    static int seriesLength(LocalDate startDate, LocalDate endDate, long[] seconds)
+    {
+    	long days = ChronoUnit.DAYS.between(startDate, endDate) + 1;
+    	if (days < 0 || days > seconds.length)
+    	{
+    		throw new IllegalArgumentException("Cannot hold " + days + " days in an array of length " + seconds.length);
+    	}
+    	return (int)days;
+    }
     
-    Map<String, Duration> report(LocalDate startDate, LocalDate endDate);
+    /**
+     * Returns the error for renaming a project to a name that is taken,
+     * either by a listed project or by a deleted one whose history is
+     * still stored under it.
+     */
+    static IllegalArgumentException nameTaken(String name, boolean isListed)
+    {
+    	if (isListed)
+    	{
+    		return new IllegalArgumentException("A project named '" + name + "' already exists.");
+    	}
+    	return new IllegalArgumentException("A deleted project named '" + name + "' still holds its history."
+    			+ "\nAdd a project named '" + name + "' to restore it.");
+    }
 
 }
@@ -0,0 +1,127 @@
+package jtimex.store;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the days around the one being viewed into a {@link CachingStore}
+ * on a background thread, so that the next step back or forward does not
+ * wait for the store. Outstanding prefetches are cancelled when the view
+ * jumps further than the prefetch depth.
+ */
+public class DayPrefetcher
+{
+	private final CachingStore store;
+	private final int depth;
+	private final boolean wholeWeek;
+	private final ExecutorService executor;
+
+	private final Map<LocalDate, Future<?>> pending = new LinkedHashMap<>();
+	private LocalDate current;
+
+	public DayPrefetcher(CachingStore store, int depth, boolean wholeWeek)
+	{
+		this.store = store;
+		this.depth = depth;
+		this.wholeWeek = wholeWeek;
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "jtimex-prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Called after the view moved to the given date.
+	 */
+	public synchronized void navigated(LocalDate date)
+	{
+		if (executor.isShutdown())
+		{
+			return;
+		}
+		if (current != null && Math.abs(ChronoUnit.DAYS.between(current, date)) > depth)
+		{
+			cancel();
+		}
+		current = date;
+		pending.values().removeIf(Future::isDone);
+		for (LocalDate day : neighbours(date))
+		{
+			if (!pending.containsKey(day) && !store.isCached(day))
+			{
+				pending.put(day, executor.submit(() -> store.prefetch(day)));
+			}
+		}
+	}
+
+	/**
+	 * Returns the days to prefetch around the given date, nearest first.
+	 */
+	List<LocalDate> neighbours(LocalDate date)
+	{
+		List<LocalDate> days = new ArrayList<>();
+		for (int i=1; i<=depth; i++)
+		{
+			days.add(date.minusDays(i));
+			days.add(date.plusDays(i));
+		}
+		if (wholeWeek)
+		{
+			LocalDate day = date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+			for (int i=0; i<7; i++, day = day.plusDays(1))
+			{
+				if (!day.equals(date) && !days.contains(day))
+				{
+					days.add(day);
+				}
+			}
+		}
+		// never prefetch the future
+		days.removeIf(day -> day.isAfter(LocalDate.now()));
+		return days;
+	}
+
+	public synchronized void cancel()
+	{
+		Iterator<Future<?>> futures = pending.values().iterator();
+		while (futures.hasNext())
+		{
+			futures.next().cancel(false);
+			futures.remove();
+		}
+	}
+
+	/**
+	 * Cancels the outstanding prefetches and waits for a running one to
+	 * finish, so that the store can be shut down after this returns.
+	 */
+	public void shutdown()
+	{
+		synchronized (this)
+		{
+			cancel();
+			executor.shutdown();
+		}
+		try
+		{
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+package jtimex.store;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jtimex.Project;
+
+/**
+ * The stored state of a single day: the duration recorded for each project
+ * and the project that was active when the day was last stored. The
+ * duration of the active project excludes the session running since its
+ * start time.
+ */
+public class DayRecord
+{
+	private final LocalDate date;
+	private final Map<String, Duration> durations;
+	private final String activeName;
+	private final LocalTime startTime;
+
+	public DayRecord(LocalDate date, Map<String, Duration> durations, String activeName, LocalTime startTime)
+	{
+		this.date = date;
+		this.durations = Collections.unmodifiableMap(new LinkedHashMap<>(durations));
+		this.activeName = activeName;
+		this.startTime = startTime;
+	}
+
+	public static DayRecord empty(LocalDate date)
+	{
+		return new DayRecord(date, Collections.emptyMap(), null, null);
+	}
+	
+	/**
+	 * Takes a snapshot of the current state of the given projects. Durations
+	 * are stored to the second. The active project is stored with the
+	 * duration accumulated before its start time, since the running time is
+	 * added back from the start time when the day is loaded.
+	 */
+	public static DayRecord of(LocalDate date, List<Project> projects, Project activeProject)
+	{
+		Map<String, Duration> durations = new LinkedHashMap<>();
+		LocalTime startTime = null;
+		for (Project project : projects)
+		{
+			// one timing snapshot per project, so the start time and
+			// duration of the active project agree
+			Project.Timing timing = project.getTiming();
+			Duration duration;
+			if (project == activeProject && timing.isActive())
+			{
+				startTime = timing.getStartTime();
+				duration = timing.getAccumulated();
+			}
+			else
+			{
+				duration = timing.currentDuration(project.getTimeSource().nanoTime());
+			}
+			durations.put(project.getName(), Duration.ofSeconds(duration.getSeconds()));
+		}
+		if (activeProject != null)
+		{
+			if (startTime == null)
+			{
+				startTime = activeProject.getStartTime();
+			}
+			return new DayRecord(date, durations, activeProject.getName(), startTime);
+		}
+		return new DayRecord(date, durations, null, null);
+	}
+	
+	/**
+	 * Applies the stored durations to the given projects, adding any project
+	 * that is not in the list, and returns the active project. The active 
+	 * project is only resumed for today, on any other day it is stopped at
+	 * the end of the day.
+	 */
+	public Project applyTo(List<Project> projects, boolean isToday)
+	{
+		Map<String, Project> projectsByName = new HashMap<>();
+		projects.forEach(p -> projectsByName.put(p.getName(), p));
+		Project activeProject = null;
+		for (Map.Entry<String, Duration> entry : durations.entrySet())
+		{
+			String name = entry.getKey();
+			Project project = projectsByName.get(name);
+			if (project == null)
+			{
+				project = new Project(name);
+				projects.add(project);
+			}
+			project.setCurrentDuration(entry.getValue());
+			if (name.equals(activeName))
+			{
+				if (!isToday)
+				{
+					project.setStartTime(startTime);
+					project.endOfDay();
+				}
+				else
+				{
+					activeProject = project;
+					project.setStartTime(startTime);
+					project.setDuration(project.getCurrentDuration());
+				}
+			}
+		}
+		return activeProject;
+	}
+	
+	public LocalDate getDate()
+	{
+		return date;
+	}
+
+	public Map<String, Duration> getDurations()
+	{
+		return durations;
+	}
+
+	public String getActiveName()
+	{
+		return activeName;
+	}
+
+	public LocalTime getStartTime()
+	{
+		return startTime;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "DayRecord(" + date + ", " + durations + ", active=" + activeName + ")";
+	}
+}
@@ -0,0 +1,336 @@
+package jtimex.store;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jtimex.Project;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the latency, call count and errors of each operation of the
+ * wrapped store, and the rows read and properties written by the stores
+ * below it, as counted by {@link StoreCounters}. The statistics are
+ * registered as MBeans named jtimex:type=DataStore,operation=... when the
+ * store is initialised, with a layer key if one is given, and a summary of
+ * the operations called since the last one is printed periodically.
+ * <p>
+ * Wrapping the whole store stack shows the latency the UI sees, while
+ * wrapping the backend shows the cost of the writes that the write-behind
+ * queue defers.
+ */
+public class InstrumentedStore implements DataStore
+{
+	private static final Logger log = LoggerFactory.getLogger(InstrumentedStore.class);
+	private static final String[] OPERATIONS = {
+		"init", "readProjects", "findProject", "add", "remove", "rename",
+		"storeDay", "storeDays", "loadDay", "storeTimexData", "loadTimexData",
+		"loadRange", "report", "streamReport", "series",
+		"storeInterval", "loadIntervals", "streamIntervals"
+	};
+
+	private final DataStore store;
+	private final String layer;
+	private final long summarySeconds;
+	private final Map<String, OperationStats> operations = new LinkedHashMap<>();
+	// call counts at the last summary
+	private final Map<String, Long> summarised = new HashMap<>();
+	private ScheduledExecutorService scheduler;
+
+	public InstrumentedStore(DataStore store)
+	{
+		this(store, null);
+	}
+
+	public InstrumentedStore(DataStore store, String layer)
+	{
+		this(store, layer, Long.getLong("jtimex.metricsInterval", 300));
+	}
+
+	public InstrumentedStore(DataStore store, long summarySeconds)
+	{
+		this(store, null, summarySeconds);
+	}
+
+	/**
+	 * @param layer distinguishes the MBeans of several instrumented stores,
+	 *        or null
+	 * @param summarySeconds seconds between summaries, or 0 for none
+	 */
+	public InstrumentedStore(DataStore store, String layer, long summarySeconds)
+	{
+		this.store = store;
+		this.layer = layer;
+		this.summarySeconds = summarySeconds;
+		for (String name : OPERATIONS)
+		{
+			operations.put(name, new OperationStats(name));
+		}
+	}
+
+	public Map<String, OperationStats> getOperations()
+	{
+		return Collections.unmodifiableMap(operations);
+	}
+
+	public OperationStats getStats(String operation)
+	{
+		return operations.get(operation);
+	}
+
+	/**
+	 * Returns a line for each operation called since the last summary.
+	 */
+	public synchronized String summary()
+	{
+		StringBuilder builder = new StringBuilder();
+		for (OperationStats stats : operations.values())
+		{
+			long count = stats.getCount();
+			Long previous = summarised.put(stats.getName(), count);
+			if (count > 0 && (previous == null || count != previous))
+			{
+				builder.append(stats).append("\n");
+			}
+		}
+		return builder.toString();
+	}
+
+	private ObjectName objectName(String operation) throws JMException
+	{
+		return new ObjectName("jtimex:type=DataStore,"
+				+ (layer == null ? "" : "layer=" + layer + ",") + "operation=" + operation);
+	}
+
+	private void register()
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (OperationStats stats : operations.values())
+		{
+			try
+			{
+				ObjectName name = objectName(stats.getName());
+				if (server.isRegistered(name))
+				{
+					server.unregisterMBean(name);
+				}
+				server.registerMBean(stats, name);
+			}
+			catch (JMException e)
+			{
+				log.warn("Failed to register MBean for {}: {}", stats.getName(), e.getMessage());
+			}
+		}
+	}
+
+	private void unregister()
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (OperationStats stats : operations.values())
+		{
+			try
+			{
+				ObjectName name = objectName(stats.getName());
+				if (server.isRegistered(name))
+				{
+					server.unregisterMBean(name);
+				}
+			}
+			catch (JMException e)
+			{
+				// the MBean is gone either way
+			}
+		}
+	}
+
+	private <T> T time(String operation, Supplier<T> call)
+	{
+		OperationStats stats = operations.get(operation);
+		long scanned = StoreCounters.getScanned();
+		long written = StoreCounters.getWritten();
+		long start = System.nanoTime();
+		try
+		{
+			T result = call.get();
+			stats.record(System.nanoTime() - start,
+					StoreCounters.getScanned() - scanned, StoreCounters.getWritten() - written);
+			return result;
+		}
+		catch (RuntimeException | Error e)
+		{
+			stats.recordError();
+			throw e;
+		}
+	}
+
+	private void time(String operation, Runnable call)
+	{
+		time(operation, () -> {
+			call.run();
+			return null;
+		});
+	}
+
+	private String name()
+	{
+		return layer == null ? "Store" : "Store " + layer;
+	}
+
+	@Override
+	public void init()
+	{
+		time("init", store::init);
+		register();
+		if (summarySeconds > 0)
+		{
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "jtimex-metrics");
+				thread.setDaemon(true);
+				return thread;
+			});
+			scheduler.scheduleAtFixedRate(() -> {
+				String summary = summary();
+				if (!summary.isEmpty())
+				{
+					log.info("{} operations:\n{}", name(), summary);
+				}
+			}, summarySeconds, summarySeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	@Override
+	public void shutdown()
+	{
+		if (scheduler != null)
+		{
+			scheduler.shutdown();
+		}
+		String summary = summary();
+		if (!summary.isEmpty())
+		{
+			log.info("{} operations:\n{}", name(), summary);
+		}
+		unregister();
+		store.shutdown();
+	}
+
+	@Override
+	public List<Project> readProjects()
+	{
+		return time("readProjects", store::readProjects);
+	}
+
+	@Override
+	public Project findProject(String name)
+	{
+		return time("findProject", () -> store.findProject(name));
+	}
+
+	@Override
+	public void add(Project project)
+	{
+		time("add", () -> store.add(project));
+	}
+
+	@Override
+	public void remove(Project project)
+	{
+		time("remove", () -> store.remove(project));
+	}
+
+	@Override
+	public void rename(Project project, String name)
+	{
+		time("rename", () -> store.rename(project, name));
+	}
+
+	@Override
+	public void storeDay(DayRecord record)
+	{
+		time("storeDay", () -> store.storeDay(record));
+	}
+
+	@Override
+	public void storeDays(Collection<DayRecord> records)
+	{
+		time("storeDays", () -> store.storeDays(records));
+	}
+
+	@Override
+	public DayRecord loadDay(LocalDate date)
+	{
+		return time("loadDay", () -> store.loadDay(date));
+	}
+
+	@Override
+	public void storeTimexData(LocalDate date, List<Project> projects, Project activeProject)
+	{
+		time("storeTimexData", () -> store.storeTimexData(date, projects, activeProject));
+	}
+
+	@Override
+	public Project loadTimexData(LocalDate date, List<Project> projects, boolean active)
+	{
+		return time("loadTimexData", () -> store.loadTimexData(date, projects, active));
+	}
+
+	@Override
+	public List<DayRecord> loadRange(LocalDate startDate, LocalDate endDate)
+	{
+		return time("loadRange", () -> store.loadRange(startDate, endDate));
+	}
+
+	@Override
+	public Map<String, Duration> report(LocalDate startDate, LocalDate endDate)
+	{
+		return time("report", () -> store.report(startDate, endDate));
+	}
+
+	@Override
+	public void streamReport(LocalDate startDate, LocalDate endDate, ReportConsumer consumer)
+	{
+		time("streamReport", () -> store.streamReport(startDate, endDate, consumer));
+	}
+
+	@Override
+	public void series(String project, LocalDate startDate, LocalDate endDate, long[] seconds)
+	{
+		time("series", () -> store.series(project, startDate, endDate, seconds));
+	}
+
+	@Override
+	public void storeInterval(Interval interval)
+	{
+		time("storeInterval", () -> store.storeInterval(interval));
+	}
+
+	@Override
+	public List<Interval> loadIntervals(LocalDate startDate, LocalDate endDate)
+	{
+		return time("loadIntervals", () -> store.loadIntervals(startDate, endDate));
+	}
+
+	@Override
+	public void streamIntervals(LocalDate startDate, LocalDate endDate, Consumer<Interval> consumer)
+	{
+		time("streamIntervals", () -> store.streamIntervals(startDate, endDate, consumer));
+	}
+
+}
@@ -0,0 +1,68 @@
+package jtimex.store;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * A period during which a project was tracked, from its activation to its
+ * deactivation or the end of the day.
+ */
+public class Interval
+{
+	private final String project;
+	private final LocalDateTime start;
+	private final LocalDateTime end;
+
+	public Interval(String project, LocalDateTime start, LocalDateTime end)
+	{
+		this.project = project;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Returns the name of the project.
+	 */
+	public String getProject()
+	{
+		return project;
+	}
+
+	public LocalDateTime getStart()
+	{
+		return start;
+	}
+
+	public LocalDateTime getEnd()
+	{
+		return end;
+	}
+
+	public Duration getDuration()
+	{
+		return Duration.between(start, end);
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (!(obj instanceof Interval))
+		{
+			return false;
+		}
+		Interval other = (Interval)obj;
+		return project.equals(other.project) && start.equals(other.start) && end.equals(other.end);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return project.hashCode() * 31 + start.hashCode() * 17 + end.hashCode();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Interval(" + project + ", " + start + " - " + end + ")";
+	}
+}
@@ -0,0 +1,691 @@
+package jtimex.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import jtimex.Project;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the intervals during which projects were tracked in an append-only
+ * file next to the store, which still holds the daily totals that reports
+ * read. Intervals are collected in memory and appended on a background
+ * thread shortly after they are stored, so a crash loses at most the last
+ * second or so. Each append writes a block per day of up to 32 intervals.
+ * <p>
+ * Block layout, all as varints: the length of the rest of the block, the
+ * number of intervals, the first start in epoch seconds and the seconds
+ * from there to the last end, then for each interval the log id of the
+ * project, the seconds from the previous end to its start (zigzag encoded,
+ * as intervals may overlap) and its length in seconds. An interval costs a
+ * few bytes, and the block header lets a reader skip blocks outside the
+ * range it wants without decoding them.
+ * <p>
+ * Log ids belong to the file, not the store, and are never reused: a
+ * block with no intervals names a log id, followed by the UTF-8 name, and
+ * a later one for the same id renames it. The intervals of a project that
+ * was deleted from the store keep their name.
+ * <p>
+ * Shortly after opening, the per-day totals of the last week are derived
+ * from the intervals and compared with the totals in the store.
+ */
+public class IntervalStore implements DataStore
+{
+	private static final Logger log = LoggerFactory.getLogger(IntervalStore.class);
+	private static final int BLOCK_SIZE = 32;
+	// days checked against the store after opening
+	private static final int CHECK_DAYS = 7;
+	// intervals are cut to the second, so a day with many of them drifts
+	private static final long CHECK_TOLERANCE = 60;
+
+	private final DataStore store;
+	private final File file;
+	private final long flushIntervalMillis;
+	// intervals not yet written, in the order they were stored
+	private final List<Interval> pending = new ArrayList<>();
+	// the name table of the file, and the names not yet written
+	private final Map<Long, String> names = new HashMap<>();
+	private final Map<String, Long> logIds = new HashMap<>();
+	private final Map<Long, String> unwrittenNames = new LinkedHashMap<>();
+	private boolean namesLoaded;
+	private long nextLogId = 1;
+	// bytes of complete blocks in the file
+	private long written;
+	private ScheduledExecutorService writer;
+
+	public IntervalStore(DataStore store)
+	{
+		this(store, "target/timex.intervals");
+	}
+
+	public IntervalStore(DataStore store, String path)
+	{
+		this(store, path, 1000);
+	}
+
+	public IntervalStore(DataStore store, String path, long flushIntervalMillis)
+	{
+		this.store = store;
+		this.file = new File(path);
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.written = file.length();
+	}
+
+	private static long seconds(LocalDateTime time)
+	{
+		return time.toEpochSecond(ZoneOffset.UTC);
+	}
+
+	private static LocalDateTime time(long seconds)
+	{
+		return LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+	}
+
+	static void writeVarint(ByteArrayOutputStream out, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			out.write((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int)value);
+	}
+
+	static long readVarint(ByteBuffer buffer)
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			byte b = buffer.get();
+			value |= (long)(b & 0x7F) << shift;
+			if (b >= 0)
+			{
+				return value;
+			}
+		}
+		throw new IllegalStateException("Malformed varint");
+	}
+
+	private static byte[] block(ByteArrayOutputStream body)
+	{
+		ByteArrayOutputStream block = new ByteArrayOutputStream(body.size() + 2);
+		writeVarint(block, body.size());
+		block.write(body.toByteArray(), 0, body.size());
+		return block.toByteArray();
+	}
+
+	/**
+	 * Encodes the block that gives the log id the name.
+	 */
+	static byte[] encodeName(long logId, String name)
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream body = new ByteArrayOutputStream(bytes.length + 4);
+		writeVarint(body, 0);
+		writeVarint(body, logId);
+		body.write(bytes, 0, bytes.length);
+		return block(body);
+	}
+
+	/**
+	 * Encodes the intervals, which must be in order of their start, as one
+	 * block, with the given log ids of their projects.
+	 */
+	static byte[] encode(List<Interval> intervals, Map<String, Long> logIds)
+	{
+		long first = seconds(intervals.get(0).getStart());
+		long last = first;
+		for (Interval interval : intervals)
+		{
+			last = Math.max(last, seconds(interval.getEnd()));
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream(8 + intervals.size() * 6);
+		writeVarint(body, intervals.size());
+		writeVarint(body, first);
+		writeVarint(body, last - first);
+		long previous = first;
+		for (Interval interval : intervals)
+		{
+			long start = seconds(interval.getStart());
+			long end = seconds(interval.getEnd());
+			long gap = start - previous;
+			writeVarint(body, logIds.get(interval.getProject()));
+			writeVarint(body, (gap << 1) ^ (gap >> 63));
+			writeVarint(body, end - start);
+			previous = end;
+		}
+		return block(body);
+	}
+
+	/**
+	 * Reads the name blocks in the buffer into the table, later ones
+	 * replacing earlier ones. A block cut short, e.g. by a crash while it
+	 * was written, ends the reading. Returns the position after the last
+	 * complete block.
+	 */
+	static int readNames(ByteBuffer buffer, Map<Long, String> names)
+	{
+		while (buffer.hasRemaining())
+		{
+			int complete = buffer.position();
+			try
+			{
+				int length = (int)readVarint(buffer);
+				if (length > buffer.remaining())
+				{
+					log.warn("Ignoring incomplete interval block");
+					return complete;
+				}
+				int next = buffer.position() + length;
+				if (readVarint(buffer) == 0)
+				{
+					long logId = readVarint(buffer);
+					byte[] bytes = new byte[next - buffer.position()];
+					buffer.get(bytes);
+					names.put(logId, new String(bytes, StandardCharsets.UTF_8));
+				}
+				buffer.position(next);
+			}
+			catch (BufferUnderflowException e)
+			{
+				log.warn("Ignoring incomplete interval block");
+				return complete;
+			}
+		}
+		return buffer.position();
+	}
+
+	/**
+	 * Decodes the interval blocks in the buffer, passing on the intervals
+	 * of those that overlap the given range in epoch seconds, named from
+	 * the table. A block cut short ends the decoding.
+	 */
+	static void decode(ByteBuffer buffer, long from, long to, Map<Long, String> names, Consumer<Interval> consumer)
+	{
+		while (buffer.hasRemaining())
+		{
+			try
+			{
+				int length = (int)readVarint(buffer);
+				if (length > buffer.remaining())
+				{
+					log.warn("Ignoring incomplete interval block");
+					return;
+				}
+				int next = buffer.position() + length;
+				int count = (int)readVarint(buffer);
+				if (count == 0)
+				{
+					// a name block
+					buffer.position(next);
+					continue;
+				}
+				long first = readVarint(buffer);
+				long last = first + readVarint(buffer);
+				if (last >= from && first < to)
+				{
+					long previous = first;
+					for (int i=0; i<count; i++)
+					{
+						String project = names.get(readVarint(buffer));
+						long zigzag = readVarint(buffer);
+						long start = previous + ((zigzag >>> 1) ^ -(zigzag & 1));
+						long end = start + readVarint(buffer);
+						// unnamed only if the file was damaged
+						if (project != null)
+						{
+							consumer.accept(new Interval(project, time(start), time(end)));
+						}
+						previous = end;
+					}
+				}
+				buffer.position(next);
+			}
+			catch (BufferUnderflowException e)
+			{
+				log.warn("Ignoring incomplete interval block");
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Appends the new names and the pending intervals to the file.
+	 */
+	synchronized void flush()
+	{
+		if (pending.isEmpty() && unwrittenNames.isEmpty())
+		{
+			return;
+		}
+		ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+		// the names before the intervals that use them
+		unwrittenNames.forEach((logId, name) -> {
+			byte[] block = encodeName(logId, name);
+			blocks.write(block, 0, block.length);
+		});
+		int first = 0;
+		while (first < pending.size())
+		{
+			LocalDate day = pending.get(first).getStart().toLocalDate();
+			int last = first + 1;
+			while (last < pending.size() && last - first < BLOCK_SIZE
+					&& pending.get(last).getStart().toLocalDate().equals(day))
+			{
+				last++;
+			}
+			byte[] block = encode(pending.subList(first, last), logIds);
+			blocks.write(block, 0, block.length);
+			first = last;
+		}
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null)
+		{
+			dir.mkdirs();
+		}
+		try ( FileOutputStream out = new FileOutputStream(file, true) )
+		{
+			blocks.writeTo(out);
+			written += blocks.size();
+			pending.clear();
+			unwrittenNames.clear();
+		}
+		catch (IOException e)
+		{
+			log.error("Failed to write intervals to {}: {}", file, e.getMessage());
+		}
+	}
+
+	private void flushQuietly()
+	{
+		try
+		{
+			flush();
+		}
+		catch (RuntimeException e)
+		{
+			log.error("Failed to write intervals to {}", file, e);
+		}
+	}
+
+	/**
+	 * Intervals are stored to the second. Intervals that are shorter are
+	 * dropped. The interval is written by the background thread, or right
+	 * away if the store is not open.
+	 */
+	@Override
+	public void storeInterval(Interval interval)
+	{
+		LocalDateTime start = time(seconds(interval.getStart()));
+		LocalDateTime end = time(seconds(interval.getEnd()));
+		if (!end.isAfter(start))
+		{
+			return;
+		}
+		synchronized (this)
+		{
+			logIdOf(interval.getProject());
+			pending.add(new Interval(interval.getProject(), start, end));
+		}
+		if (writer == null || writer.isShutdown())
+		{
+			flush();
+		}
+	}
+
+	/**
+	 * Returns the log id of the project, giving it the next one if it has
+	 * none yet.
+	 */
+	private long logIdOf(String project)
+	{
+		loadNames(false);
+		Long logId = logIds.get(project);
+		if (logId == null)
+		{
+			logId = nextLogId++;
+			names.put(logId, project);
+			logIds.put(project, logId);
+			unwrittenNames.put(logId, project);
+		}
+		return logId;
+	}
+
+	/**
+	 * Reads the name table from the file, if it has not been read yet or
+	 * the file is to be truncated to its last complete block, as it is when
+	 * the store is opened.
+	 */
+	private synchronized void loadNames(boolean truncate)
+	{
+		if (namesLoaded && !truncate)
+		{
+			return;
+		}
+		namesLoaded = true;
+		if (!file.exists())
+		{
+			return;
+		}
+		Map<Long, String> table = new HashMap<>();
+		try ( FileChannel channel = truncate ?
+				FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE) :
+				FileChannel.open(file.toPath(), StandardOpenOption.READ) )
+		{
+			long size = truncate ? channel.size() : Math.min(written, channel.size());
+			long complete = readNames(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), table);
+			if (truncate)
+			{
+				if (complete < size)
+				{
+					log.warn("Truncating {} to the last complete interval block", file);
+					channel.truncate(complete);
+				}
+				written = complete;
+			}
+		}
+		catch (IOException e)
+		{
+			log.error("Failed to read intervals from {}: {}", file, e.getMessage());
+		}
+		// names given since the file was last read take precedence
+		table.forEach((logId, name) -> {
+			if (!unwrittenNames.containsKey(logId))
+			{
+				names.put(logId, name);
+				logIds.put(name, logId);
+			}
+			nextLogId = Math.max(nextLogId, logId + 1);
+		});
+	}
+
+	@Override
+	public List<Interval> loadIntervals(LocalDate startDate, LocalDate endDate)
+	{
+		List<Interval> intervals = new ArrayList<>();
+		streamIntervals(startDate, endDate, intervals::add);
+		return intervals;
+	}
+
+	/**
+	 * Reads the file in a single pass over a mapped buffer, skipping the
+	 * blocks outside the range, followed by the intervals not yet written.
+	 * The file is only appended to, so the blocks written when the read
+	 * starts are decoded without holding up intervals being stored.
+	 */
+	@Override
+	public void streamIntervals(LocalDate startDate, LocalDate endDate, Consumer<Interval> consumer)
+	{
+		long size;
+		List<Interval> unwritten;
+		Map<Long, String> table;
+		synchronized (this)
+		{
+			loadNames(false);
+			size = written;
+			unwritten = new ArrayList<>(pending);
+			table = new HashMap<>(names);
+		}
+		long from = seconds(startDate.atStartOfDay());
+		long to = seconds(endDate.plusDays(1).atStartOfDay());
+		Consumer<Interval> inRange = interval -> {
+			long start = seconds(interval.getStart());
+			if (start >= from && start < to)
+			{
+				consumer.accept(interval);
+			}
+		};
+		if (size > 0)
+		{
+			try ( FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ) )
+			{
+				decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, channel.size())), from, to, table, inRange);
+			}
+			catch (IOException e)
+			{
+				log.error("Failed to read intervals from {}: {}", file, e.getMessage());
+			}
+		}
+		unwritten.forEach(inRange);
+	}
+
+	/**
+	 * Derives the total time tracked on each day in the range, by project,
+	 * from the intervals. An interval that spans midnight is split between
+	 * the days.
+	 */
+	public Map<LocalDate, Map<String, Duration>> dailyTotals(LocalDate startDate, LocalDate endDate)
+	{
+		Map<LocalDate, Map<String, Duration>> totals = new TreeMap<>();
+		// intervals started the day before may run into the range
+		streamIntervals(startDate.minusDays(1), endDate, interval -> {
+			LocalDateTime start = interval.getStart();
+			while (start.isBefore(interval.getEnd()))
+			{
+				LocalDate day = start.toLocalDate();
+				LocalDateTime midnight = day.plusDays(1).atStartOfDay();
+				LocalDateTime end = interval.getEnd().isBefore(midnight) ? interval.getEnd() : midnight;
+				if (!day.isBefore(startDate) && !day.isAfter(endDate))
+				{
+					totals.computeIfAbsent(day, d -> new LinkedHashMap<>())
+						.merge(interval.getProject(), Duration.between(start, end), Duration::plus);
+				}
+				start = end;
+			}
+		});
+		return totals;
+	}
+
+	/**
+	 * Compares the daily totals derived from the intervals with those in
+	 * the store, for the days in the range that have intervals, and logs
+	 * each project whose totals differ by more than a minute: its day
+	 * record was lost, or its time was edited by hand. Returns the number
+	 * of differences.
+	 */
+	public int check(LocalDate startDate, LocalDate endDate)
+	{
+		int differences = 0;
+		for (Map.Entry<LocalDate, Map<String, Duration>> day : dailyTotals(startDate, endDate).entrySet())
+		{
+			Map<String, Duration> stored = store.loadDay(day.getKey()).getDurations();
+			for (Map.Entry<String, Duration> derived : day.getValue().entrySet())
+			{
+				Duration total = stored.getOrDefault(derived.getKey(), Duration.ZERO);
+				if (Math.abs(total.getSeconds() - derived.getValue().getSeconds()) > CHECK_TOLERANCE)
+				{
+					log.warn("{} on {}: {} stored, {} in intervals", new Object[] {
+							derived.getKey(), day.getKey(), total, derived.getValue() });
+					differences++;
+				}
+			}
+		}
+		return differences;
+	}
+
+	private void checkRecent()
+	{
+		try
+		{
+			LocalDate yesterday = LocalDate.now().minusDays(1);
+			int differences = check(yesterday.minusDays(CHECK_DAYS - 1), yesterday);
+			if (differences == 0)
+			{
+				log.debug("Interval totals of the last {} days agree with the store", CHECK_DAYS);
+			}
+		}
+		catch (RuntimeException e)
+		{
+			log.error("Failed to check intervals against the store", e);
+		}
+	}
+
+	@Override
+	public void init()
+	{
+		store.init();
+		// cuts off a block left incomplete by a crash, so that new blocks
+		// are appended after the last complete one
+		loadNames(true);
+		writer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "jtimex-interval-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		writer.scheduleWithFixedDelay(
+				this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+		// off the caller's thread, which is opening the application
+		writer.execute(this::checkRecent);
+	}
+
+	@Override
+	public void shutdown()
+	{
+		if (writer != null)
+		{
+			writer.shutdown();
+			try
+			{
+				writer.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		try
+		{
+			flush();
+		}
+		finally
+		{
+			store.shutdown();
+		}
+	}
+
+	@Override
+	public List<Project> readProjects()
+	{
+		return store.readProjects();
+	}
+
+	@Override
+	public Project findProject(String name)
+	{
+		return store.findProject(name);
+	}
+
+	@Override
+	public void add(Project project)
+	{
+		store.add(project);
+	}
+
+	@Override
+	public void remove(Project project)
+	{
+		store.remove(project);
+	}
+
+	/**
+	 * Renames the project in the store, then gives its log id the new
+	 * name, so that its past intervals follow it.
+	 */
+	@Override
+	public void rename(Project project, String name)
+	{
+		store.rename(project, name);
+		String previous = project.getName();
+		synchronized (this)
+		{
+			loadNames(false);
+			Long logId = logIds.remove(previous);
+			if (logId == null)
+			{
+				return;
+			}
+			names.put(logId, name);
+			logIds.put(name, logId);
+			unwrittenNames.put(logId, name);
+			pending.replaceAll(interval -> interval.getProject().equals(previous) ?
+					new Interval(name, interval.getStart(), interval.getEnd()) : interval);
+		}
+		if (writer == null || writer.isShutdown())
+		{
+			flush();
+		}
+	}
+
+	@Override
+	public void storeDay(DayRecord record)
+	{
+		store.storeDay(record);
+	}
+
+	@Override
+	public void storeDays(Collection<DayRecord> records)
+	{
+		store.storeDays(records);
+	}
+
+	@Override
+	public DayRecord loadDay(LocalDate date)
+	{
+		return store.loadDay(date);
+	}
+
+	@Override
+	public Project loadTimexData(LocalDate date, List<Project> projects, boolean active)
+	{
+		return store.loadTimexData(date, projects, active);
+	}
+
+	@Override
+	public List<DayRecord> loadRange(LocalDate startDate, LocalDate endDate)
+	{
+		return store.loadRange(startDate, endDate);
+	}
+
+	@Override
+	public Map<String, Duration> report(LocalDate startDate, LocalDate endDate)
+	{
+		return store.report(startDate, endDate);
+	}
+
+	@Override
+	public void streamReport(LocalDate startDate, LocalDate endDate, ReportConsumer consumer)
+	{
+		store.streamReport(startDate, endDate, consumer);
+	}
+
+	@Override
+	public void series(String project, LocalDate startDate, LocalDate endDate, long[] seconds)
+	{
+		store.series(project, startDate, endDate, seconds);
+	}
+
+}
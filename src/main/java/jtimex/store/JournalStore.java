@@ -0,0 +1,583 @@
+package jtimex.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jtimex.Project;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A data store backed by an append-only, memory-mapped journal file of
+ * fixed-width records. Each stored day appends the durations that changed,
+ * activate/deactivate events and a commit marker. The journal is replayed
+ * into an in-memory index on open; records after the last commit are
+ * discarded.
+ * <p>
+ * Record layout (32 bytes): type (1), length (1), sequence (2), project
+ * id (4), epoch day (8), value (8), reserved (8). Name records carry up
+ * to 24 bytes of the UTF-8 project name from offset 8. The length of a
+ * project add record says whether the project is listed (0), only known
+ * from the history (1), or renamed to the preceding name (2).
+ * <p>
+ * Commits are forced to disk together by a background thread every
+ * second, and at shutdown, rather than on every stored day.
+ */
+public class JournalStore implements DataStore
+{
+	private static final Logger log = LoggerFactory.getLogger(JournalStore.class);
+	static final int RECORD_SIZE = 32;
+	private static final int NAME_CHUNK = 24;
+	private static final int INITIAL_CAPACITY = 1 << 20;
+	// the largest whole number of records a mapped buffer can hold
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE / RECORD_SIZE * RECORD_SIZE;
+
+	static final byte EMPTY = 0;
+	static final byte NAME = 1;
+	static final byte PROJECT_ADD = 2;
+	static final byte PROJECT_REMOVE = 3;
+	static final byte DURATION = 4;
+	static final byte DURATION_REMOVE = 5;
+	static final byte ACTIVATE = 6;
+	static final byte DEACTIVATE = 7;
+	static final byte COMMIT = 8;
+
+	// length of a PROJECT_ADD record
+	private static final int LISTED = 0;
+	private static final int UNLISTED = 1;
+	private static final int RENAMED = 2;
+
+	private String path = "target/timex.journal";
+	private final long forceIntervalMillis;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int position;
+	private int uncommitted;
+	// written since the last force
+	private boolean unforced;
+	private ScheduledExecutorService syncer;
+
+	// in-memory index rebuilt from the journal
+	private final Map<Integer, String> names = new HashMap<>();
+	private final Map<String, Integer> ids = new HashMap<>();
+	private final Set<Integer> listed = new LinkedHashSet<>();
+	private final TreeMap<Long, Day> days = new TreeMap<>();
+	private int nextId = 1;
+
+	private static class Day
+	{
+		final Map<Integer, Long> seconds = new LinkedHashMap<>();
+		int activeId = -1;
+		long startNanos;
+	}
+
+	public JournalStore()
+	{
+		this.forceIntervalMillis = 1000;
+	}
+
+	public JournalStore(String path)
+	{
+		this(path, 1000);
+	}
+
+	public JournalStore(String path, long forceIntervalMillis)
+	{
+		this.path = path;
+		this.forceIntervalMillis = forceIntervalMillis;
+	}
+
+	@Override
+	public synchronized void init()
+	{
+		try
+		{
+			File journal = new File(path);
+			if (journal.getParentFile() != null)
+			{
+				journal.getParentFile().mkdirs();
+			}
+			file = new RandomAccessFile(journal, "rw");
+			channel = file.getChannel();
+			map(Math.max(INITIAL_CAPACITY, channel.size()));
+			replay();
+		}
+		catch (IOException e)
+		{
+			InitialisationFailed exc = new InitialisationFailed();
+			exc.initCause(e);
+			throw exc;
+		}
+		syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "jtimex-journal-sync");
+			thread.setDaemon(true);
+			return thread;
+		});
+		syncer.scheduleWithFixedDelay(
+				this::force, forceIntervalMillis, forceIntervalMillis, TimeUnit.MILLISECONDS);
+		log.info("Opened journal {} with {} days", path, days.size());
+	}
+
+	@Override
+	public void shutdown()
+	{
+		// not while holding the lock, which a running force waits for
+		if (syncer != null)
+		{
+			syncer.shutdown();
+			try
+			{
+				syncer.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this)
+		{
+			if (channel == null)
+			{
+				return;
+			}
+			// not mapped if the journal failed to open
+			if (buffer != null)
+			{
+				buffer.force();
+			}
+			try
+			{
+				channel.close();
+				file.close();
+			}
+			catch (IOException e)
+			{
+				log.warn("Failed to close journal {}", path);
+			}
+			channel = null;
+		}
+	}
+
+	/**
+	 * Forces the commits since the last force to disk.
+	 */
+	synchronized void force()
+	{
+		if (unforced && channel != null)
+		{
+			buffer.force();
+			unforced = false;
+		}
+	}
+
+	private void map(long capacity) throws IOException
+	{
+		if (capacity > MAX_CAPACITY)
+		{
+			throw new IOException("Journal " + path + " is larger than the "
+					+ MAX_CAPACITY + " bytes that can be mapped");
+		}
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	}
+
+	/**
+	 * Rebuilds the index from the journal and positions the writer after
+	 * the last committed record. Anything after that is cleared.
+	 */
+	private void replay()
+	{
+		List<Integer> group = new ArrayList<>();
+		Map<Integer, byte[]> nameChunks = new HashMap<>();
+		int committed = 0;
+		int offset = 0;
+		while (offset + RECORD_SIZE <= buffer.capacity() && buffer.get(offset) != EMPTY)
+		{
+			byte type = buffer.get(offset);
+			int projectId = buffer.getInt(offset + 4);
+			switch (type)
+			{
+			case NAME:
+				int length = buffer.get(offset + 1);
+				int sequence = buffer.getShort(offset + 2);
+				byte[] previous = nameChunks.getOrDefault(projectId, new byte[0]);
+				byte[] name = new byte[sequence * NAME_CHUNK + length];
+				System.arraycopy(previous, 0, name, 0, Math.min(previous.length, name.length));
+				for (int i=0; i<length; i++)
+				{
+					name[sequence * NAME_CHUNK + i] = buffer.get(offset + 8 + i);
+				}
+				nameChunks.put(projectId, name);
+				break;
+			case PROJECT_ADD:
+				byte[] bytes = nameChunks.remove(projectId);
+				if (bytes != null)
+				{
+					indexName(projectId, new String(bytes, StandardCharsets.UTF_8));
+				}
+				if (buffer.get(offset + 1) == LISTED)
+				{
+					listed.add(projectId);
+				}
+				committed = offset + RECORD_SIZE;
+				break;
+			case PROJECT_REMOVE:
+				listed.remove(projectId);
+				committed = offset + RECORD_SIZE;
+				break;
+			case COMMIT:
+				if (buffer.getLong(offset + 16) == group.size())
+				{
+					group.forEach(this::apply);
+				}
+				group.clear();
+				committed = offset + RECORD_SIZE;
+				break;
+			default:
+				group.add(offset);
+			}
+			offset += RECORD_SIZE;
+		}
+		for (int i=committed; i<offset; i++)
+		{
+			buffer.put(i, EMPTY);
+		}
+		position = committed;
+	}
+
+	private void indexName(int projectId, String name)
+	{
+		String previous = names.put(projectId, name);
+		if (previous != null)
+		{
+			ids.remove(previous);
+		}
+		ids.put(name, projectId);
+		nextId = Math.max(nextId, projectId + 1);
+	}
+
+	private void apply(int offset)
+	{
+		byte type = buffer.get(offset);
+		int projectId = buffer.getInt(offset + 4);
+		long epochDay = buffer.getLong(offset + 8);
+		long value = buffer.getLong(offset + 16);
+		Day day = days.computeIfAbsent(epochDay, d -> new Day());
+		switch (type)
+		{
+		case DURATION:
+			day.seconds.put(projectId, value);
+			break;
+		case DURATION_REMOVE:
+			day.seconds.remove(projectId);
+			break;
+		case ACTIVATE:
+			day.activeId = projectId;
+			day.startNanos = value;
+			break;
+		case DEACTIVATE:
+			day.activeId = -1;
+			break;
+		}
+	}
+
+	private void append(byte type, int length, int sequence, int projectId, long epochDay, long value)
+	{
+		if (position + RECORD_SIZE > buffer.capacity())
+		{
+			if (buffer.capacity() == MAX_CAPACITY)
+			{
+				throw new IllegalStateException("Journal " + path + " is full");
+			}
+			try
+			{
+				map(Math.min(buffer.capacity() * 2L, MAX_CAPACITY));
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException("Failed to grow journal " + path, e);
+			}
+		}
+		buffer.put(position, type);
+		buffer.put(position + 1, (byte)length);
+		buffer.putShort(position + 2, (short)sequence);
+		buffer.putInt(position + 4, projectId);
+		buffer.putLong(position + 8, epochDay);
+		buffer.putLong(position + 16, value);
+		buffer.putLong(position + 24, 0);
+		position += RECORD_SIZE;
+		uncommitted++;
+	}
+
+	private void appendName(int projectId, String name)
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int chunks = Math.max(1, (bytes.length + NAME_CHUNK - 1) / NAME_CHUNK);
+		for (int sequence=0; sequence<chunks; sequence++)
+		{
+			int start = sequence * NAME_CHUNK;
+			int length = Math.min(NAME_CHUNK, bytes.length - start);
+			append(NAME, length, sequence, projectId, 0, 0);
+			for (int i=0; i<length; i++)
+			{
+				buffer.put(position - RECORD_SIZE + 8 + i, bytes[start + i]);
+			}
+		}
+	}
+
+	private void commit(long epochDay)
+	{
+		append(COMMIT, 0, 0, 0, epochDay, uncommitted);
+		uncommitted = 0;
+		unforced = true;
+	}
+
+	/**
+	 * Returns the id of the named project, registering it unlisted if it is
+	 * not known yet. Registration is committed by its own PROJECT_ADD record
+	 * so it must not be interleaved with the records of a day.
+	 */
+	private int idOf(String name)
+	{
+		Integer id = ids.get(name);
+		if (id == null)
+		{
+			id = nextId++;
+			appendName(id, name);
+			append(PROJECT_ADD, UNLISTED, 0, id, 0, 0);
+			uncommitted = 0;
+			indexName(id, name);
+		}
+		return id;
+	}
+
+	@Override
+	public synchronized List<Project> readProjects()
+	{
+		List<Project> projects = new ArrayList<>();
+		for (int id : listed)
+		{
+			Project project = new Project(names.get(id));
+			project.setId(id);
+			projects.add(project);
+		}
+		return projects;
+	}
+
+	@Override
+	public synchronized Project findProject(String name)
+	{
+		Integer id = ids.get(name);
+		if (id == null || !listed.contains(id))
+		{
+			return null;
+		}
+		Project project = new Project(name);
+		project.setId(id);
+		return project;
+	}
+
+	@Override
+	public synchronized void add(Project project)
+	{
+		int id = idOf(project.getName());
+		if (listed.add(id))
+		{
+			append(PROJECT_ADD, LISTED, 0, id, 0, 0);
+			uncommitted = 0;
+			unforced = true;
+		}
+		project.setId(id);
+	}
+
+	@Override
+	public synchronized void remove(Project project)
+	{
+		Integer id = ids.get(project.getName());
+		if (id != null && listed.remove(id))
+		{
+			append(PROJECT_REMOVE, 0, 0, id, 0, 0);
+			uncommitted = 0;
+			unforced = true;
+		}
+	}
+
+	@Override
+	public synchronized void rename(Project project, String name)
+	{
+		Integer existing = ids.get(name);
+		if (existing != null)
+		{
+			throw DataStore.nameTaken(name, listed.contains(existing));
+		}
+		Integer id = ids.get(project.getName());
+		if (id != null)
+		{
+			appendName(id, name);
+			append(PROJECT_ADD, RENAMED, 0, id, 0, 0);
+			uncommitted = 0;
+			unforced = true;
+			indexName(id, name);
+		}
+	}
+
+	/**
+	 * Appends the durations that differ from the indexed state of the day,
+	 * and an activate or deactivate event if the active project changed.
+	 */
+	@Override
+	public synchronized void storeDay(DayRecord record)
+	{
+		long epochDay = record.getDate().toEpochDay();
+		Day day = days.computeIfAbsent(epochDay, d -> new Day());
+		// register any new names before the first record of the day
+		Map<Integer, Long> seconds = new LinkedHashMap<>();
+		record.getDurations().forEach((name, duration) -> seconds.put(idOf(name), duration.getSeconds()));
+		int activeId = record.getActiveName() == null ? -1 : idOf(record.getActiveName());
+
+		for (Map.Entry<Integer, Long> entry : seconds.entrySet())
+		{
+			if (!entry.getValue().equals(day.seconds.get(entry.getKey())))
+			{
+				append(DURATION, 0, 0, entry.getKey(), epochDay, entry.getValue());
+			}
+		}
+		for (int id : day.seconds.keySet())
+		{
+			if (!seconds.containsKey(id))
+			{
+				append(DURATION_REMOVE, 0, 0, id, epochDay, 0);
+			}
+		}
+		if (activeId != -1)
+		{
+			// -1 if the active project was never started
+			long startNanos = record.getStartTime() == null ? -1 : record.getStartTime().toNanoOfDay();
+			if (activeId != day.activeId || startNanos != day.startNanos)
+			{
+				append(ACTIVATE, 0, 0, activeId, epochDay, startNanos);
+			}
+			day.activeId = activeId;
+			day.startNanos = startNanos;
+		}
+		else if (day.activeId != -1)
+		{
+			append(DEACTIVATE, 0, 0, day.activeId, epochDay, 0);
+			day.activeId = -1;
+		}
+		day.seconds.clear();
+		day.seconds.putAll(seconds);
+		if (uncommitted > 0)
+		{
+			StoreCounters.written(uncommitted);
+			commit(epochDay);
+		}
+	}
+
+	@Override
+	public synchronized DayRecord loadDay(LocalDate date)
+	{
+		Day day = days.get(date.toEpochDay());
+		if (day == null)
+		{
+			return DayRecord.empty(date);
+		}
+		return toRecord(date, day);
+	}
+
+	private DayRecord toRecord(LocalDate date, Day day)
+	{
+		StoreCounters.scanned(day.seconds.size());
+		Map<String, Duration> durations = new LinkedHashMap<>();
+		day.seconds.forEach((id, seconds) -> durations.put(names.get(id), Duration.ofSeconds(seconds)));
+		if (day.activeId == -1)
+		{
+			return new DayRecord(date, durations, null, null);
+		}
+		return new DayRecord(date, durations, names.get(day.activeId),
+				day.startNanos < 0 ? null : LocalTime.ofNanoOfDay(day.startNanos));
+	}
+
+	@Override
+	public synchronized List<DayRecord> loadRange(LocalDate startDate, LocalDate endDate)
+	{
+		List<DayRecord> records = new ArrayList<>();
+		days.subMap(startDate.toEpochDay(), true, endDate.toEpochDay(), true)
+			.forEach((epochDay, day) -> records.add(toRecord(LocalDate.ofEpochDay(epochDay), day)));
+		return records;
+	}
+
+	/**
+	 * Streams the indexed days in the range. Reports are collected from
+	 * this by the default {@link DataStore#report(LocalDate, LocalDate)}.
+	 */
+	@Override
+	public synchronized void streamReport(LocalDate startDate, LocalDate endDate, ReportConsumer consumer)
+	{
+		int scanned = 0;
+		try
+		{
+			for (Map.Entry<Long, Day> entry : days.subMap(startDate.toEpochDay(), true, endDate.toEpochDay(), true).entrySet())
+			{
+				LocalDate date = LocalDate.ofEpochDay(entry.getKey());
+				for (Map.Entry<Integer, Long> seconds : entry.getValue().seconds.entrySet())
+				{
+					scanned++;
+					if (!consumer.accept(date, names.get(seconds.getKey()), seconds.getValue()))
+					{
+						return;
+					}
+				}
+			}
+		}
+		finally
+		{
+			StoreCounters.scanned(scanned);
+		}
+	}
+
+	@Override
+	public synchronized void series(String project, LocalDate startDate, LocalDate endDate, long[] seconds)
+	{
+		int length = DataStore.seriesLength(startDate, endDate, seconds);
+		Arrays.fill(seconds, 0, length, 0L);
+		Integer id = ids.get(project);
+		if (id == null)
+		{
+			return;
+		}
+		long first = startDate.toEpochDay();
+		NavigableMap<Long, Day> range = days.subMap(first, true, endDate.toEpochDay(), true);
+		StoreCounters.scanned(range.size());
+		range.forEach((epochDay, day) -> {
+			Long value = day.seconds.get(id);
+			if (value != null)
+			{
+				seconds[(int)(epochDay - first)] = value;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,197 @@
+package jtimex.store;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.IsoFields;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Per ISO week and per month totals of the day nodes in a Neo4j store.
+ * Each rollup node holds the number of seconds per project under a "p"
+ * key followed by the project node id. All methods must be called inside
+ * a transaction.
+ */
+class Neo4JRollups
+{
+	static final Label ROLLUP_LABEL = DynamicLabel.label( "TimexRollup" );
+	static final String PERIOD_KEY = "period";
+	private static final String PROJECT_PREFIX = "p:";
+
+	private final GraphDatabaseService graphDb;
+
+	Neo4JRollups(GraphDatabaseService graphDb)
+	{
+		this.graphDb = graphDb;
+	}
+
+	static String weekKey(LocalDate date)
+	{
+		return String.format("%d-W%02d",
+				date.get(IsoFields.WEEK_BASED_YEAR),
+				date.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+	}
+
+	static String monthKey(LocalDate date)
+	{
+		return YearMonth.from(date).toString();
+	}
+
+	/**
+	 * Adds the change in seconds per project on the given day to the week
+	 * and month containing it.
+	 */
+	void add(LocalDate date, Map<Long, Long> deltas)
+	{
+		if (deltas.isEmpty())
+		{
+			return;
+		}
+		add(findOrCreate(weekKey(date)), deltas);
+		add(findOrCreate(monthKey(date)), deltas);
+	}
+
+	private static void add(Node node, Map<Long, Long> deltas)
+	{
+		deltas.forEach((projectId, delta) -> {
+			String key = PROJECT_PREFIX + projectId;
+			node.setProperty(key, (Long)node.getProperty(key, 0L) + delta);
+		});
+	}
+
+	/**
+	 * Adds the totals of the given period to the seconds per project id and
+	 * returns the number of totals read.
+	 */
+	int read(String period, Map<Long, Long> totals)
+	{
+		Node node = find(period);
+		if (node == null)
+		{
+			return 0;
+		}
+		int read = 0;
+		for (String key : node.getPropertyKeys())
+		{
+			if (key.startsWith(PROJECT_PREFIX))
+			{
+				totals.merge(Long.parseLong(key.substring(PROJECT_PREFIX.length())),
+						(Long)node.getProperty(key), Long::sum);
+				read++;
+			}
+		}
+		return read;
+	}
+
+	/**
+	 * Compares the rollup nodes with the expected non-zero totals per period
+	 * and returns the number of periods that differ. If repair is set, the
+	 * differing rollups are rewritten from the expected totals.
+	 */
+	int check(Map<String, Map<Long, Long>> expected, boolean repair)
+	{
+		int inconsistent = 0;
+		Set<String> periods = new HashSet<>(expected.keySet());
+		try ( ResourceIterator<Node> nodes =
+				GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(ROLLUP_LABEL).iterator() )
+		{
+			while (nodes.hasNext())
+			{
+				Node node = nodes.next();
+				String period = (String)node.getProperty(PERIOD_KEY);
+				periods.remove(period);
+				Map<Long, Long> totals = expected.getOrDefault(period, new HashMap<>());
+				if (!totals.equals(readTotals(node)))
+				{
+					inconsistent++;
+					if (repair)
+					{
+						rewrite(node, totals);
+					}
+				}
+			}
+		}
+		// periods with recorded days but no rollup node at all
+		for (String period : periods)
+		{
+			if (expected.get(period).isEmpty())
+			{
+				continue;
+			}
+			inconsistent++;
+			if (repair)
+			{
+				rewrite(findOrCreate(period), expected.get(period));
+			}
+		}
+		return inconsistent;
+	}
+
+	/**
+	 * Returns the non-zero totals of a rollup node, or null if it still has
+	 * totals keyed by project name.
+	 */
+	private static Map<Long, Long> readTotals(Node node)
+	{
+		Map<Long, Long> totals = new HashMap<>();
+		for (String key : node.getPropertyKeys())
+		{
+			if (key.startsWith("#"))
+			{
+				return null;
+			}
+			if (key.startsWith(PROJECT_PREFIX) && (Long)node.getProperty(key) != 0)
+			{
+				totals.put(Long.parseLong(key.substring(PROJECT_PREFIX.length())), (Long)node.getProperty(key));
+			}
+		}
+		return totals;
+	}
+
+	private static void rewrite(Node node, Map<Long, Long> totals)
+	{
+		for (String key : node.getPropertyKeys())
+		{
+			if (!key.equals(PERIOD_KEY))
+			{
+				node.removeProperty(key);
+			}
+		}
+		totals.forEach((projectId, seconds) -> node.setProperty(PROJECT_PREFIX + projectId, seconds));
+	}
+
+	private Node find(String period)
+	{
+		Node node = null;
+		try ( ResourceIterator<Node> nodes =
+				graphDb.findNodesByLabelAndProperty(ROLLUP_LABEL, PERIOD_KEY, period).iterator() )
+		{
+			while (nodes.hasNext())
+			{
+				node = nodes.next();
+			}
+		}
+		return node;
+	}
+
+	private Node findOrCreate(String period)
+	{
+		Node node = find(period);
+		if (node == null)
+		{
+			node = graphDb.createNode(ROLLUP_LABEL);
+			node.setProperty(PERIOD_KEY, period);
+		}
+		return node;
+	}
+
+}
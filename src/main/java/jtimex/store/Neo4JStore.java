@@ -1,34 +1,77 @@
 package jtimex.store;
 
+import java.time.DayOfWeek;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import jtimex.DurationCodec;
 import jtimex.Project;
 
 import org.neo4j.graphdb.ConstraintViolationException;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.ConstraintType;
 import org.neo4j.graphdb.schema.IndexDefinition;
 import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.index.lucene.QueryContext;
+import org.neo4j.index.lucene.ValueContext;
 import org.neo4j.tooling.GlobalGraphOperations;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public class Neo4JStore implements DataStore
 {
+	private static final Logger log = LoggerFactory.getLogger(Neo4JStore.class);
     private String dbPath = "target/neo4j-timex-db";
 
     GraphDatabaseService graphDb;
 	private final Label projectLabel = DynamicLabel.label( "Project" );
 	private final Label dateLabel = DynamicLabel.label( "TimexRecord" );
+	private final Label metaLabel = DynamicLabel.label( "TimexMeta" );
+	// (:Project)-[:SPENT {seconds}]->(:TimexRecord)
+	private static final RelationshipType SPENT = DynamicRelationshipType.withName( "SPENT" );
+	private static final String SECONDS_KEY = "seconds";
+	private static final int FORMAT_VERSION = 2;
+	// Day nodes are keyed by epoch day. The schema index serves exact
+	// lookups, the numeric legacy index serves ordered range scans.
+	private static final String DAY_KEY = "day";
+	private static final String DAY_INDEX = "TimexRecordDays";
+	private Index<Node> dayIndex;
+	private Neo4JRollups rollups;
+	
+	private volatile int lastPropertiesWritten;
+	private final AtomicLong totalPropertiesWritten = new AtomicLong();
+	
+	final ProjectRegistry registry = new ProjectRegistry();
+	
+	// reports longer than a chunk are split across threads if set
+	private ParallelReport parallelReport;
 
     public Neo4JStore() 
     {
@@ -52,146 +95,165 @@ public class Neo4JStore implements DataStore
     		exc.initCause(e);
     		throw exc;
     	}
-    	registerShutdownHook( graphDb );
+    	migrateDateKeys();
     	
-    	IndexDefinition indexDefinition;
+    	IndexDefinition indexDefinition = null;
     	try ( Transaction tx = graphDb.beginTx() )
     	{
     	    Schema schema = graphDb.schema();
-    	    indexDefinition = schema.indexFor( DynamicLabel.label( "TimexRecord" ) )
-    	            .on( "date" )
+    	    indexDefinition = schema.indexFor( dateLabel )
+    	            .on( DAY_KEY )
     	            .create();
     	    tx.success();
     	}
     	catch (ConstraintViolationException e)
     	{
-    		System.err.println("Timex date index already exists.");
+    		log.debug("Timex day index already exists");
+    	}
+    	if (indexDefinition != null)
+    	{
+    		log.info("Created the timex day index");
+    	}
+    	
+    	createProjectConstraint();
+    	
+    	// The rollup index is created along with the first rollups, so a
+    	// store without it needs its rollups built from the day nodes.
+    	boolean buildRollups = false;
+    	try ( Transaction tx = graphDb.beginTx() )
+    	{
+    		graphDb.schema().indexFor( Neo4JRollups.ROLLUP_LABEL )
+    				.on( Neo4JRollups.PERIOD_KEY )
+    				.create();
+    		tx.success();
+    		buildRollups = true;
+    	}
+    	catch (ConstraintViolationException e)
+    	{
+    		log.debug("Timex rollup index already exists");
+    	}
+    	
+    	try ( Transaction tx = graphDb.beginTx() )
+    	{
+    		graphDb.schema().awaitIndexesOnline(10, TimeUnit.SECONDS);
+    		dayIndex = graphDb.index().forNodes(DAY_INDEX);
+    		rollups = new Neo4JRollups(graphDb);
+    		tx.success();
+    	}
+    	loadRegistry();
+    	if (migrateProjectRelationships() || buildRollups)
+    	{
+    		checkRollups(true);
     	}
-
-    	System.out.println("Created index");
     }
     
-    @Override
-    public void storeTimexData(LocalDate date, List<Project> projects, Project activeProject)
+    /**
+     * One-time migration of the durations stored as "#name" properties on
+     * day nodes to SPENT relationships from the project nodes, and of the
+     * active project name to its node id. Projects that only appear in the
+     * history are created as removed projects. Returns whether anything was
+     * migrated, in which case the rollups need rebuilding.
+     */
+    private boolean migrateProjectRelationships()
     {
-        try ( Transaction tx = graphDb.beginTx() )
-        {
-        	Node dateNode = null;
-    	    try ( ResourceIterator<Node> dateNodes =
-    	    		graphDb.findNodesByLabelAndProperty(dateLabel, "date", date.toString()).iterator() )
+    	int migrated = 0;
+    	Map<String, Node> created = new HashMap<>();
+    	try ( Transaction tx = graphDb.beginTx() )
+    	{
+    		Node meta = null;
+    	    try ( ResourceIterator<Node> metaNodes =
+    	    		GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(metaLabel).iterator() )
     	    {
-    	    	while (dateNodes.hasNext())
+    	    	if (metaNodes.hasNext())
     	    	{
-    	    		dateNode = dateNodes.next();
-//    	    		System.out.println("Found existing node for date " + date);
+    	    		meta = metaNodes.next();
     	    	}
     	    }
-    	    if (dateNode == null)
+    	    if (meta != null && (Integer)meta.getProperty("version") >= FORMAT_VERSION)
     	    {
-    	    	dateNode = graphDb.createNode();
-            	dateNode.addLabel(dateLabel);
-//	    		System.out.println("Created new node for date " + date);
+    	    	tx.success();
+    	    	return false;
     	    }
-        	for (String key : dateNode.getPropertyKeys())
-        	{
-        		dateNode.removeProperty(key);
-        	}
-        	dateNode.setProperty( "date", date.toString());
-        	for (Project project : projects)
-        	{
-        		System.out.println("Storing project " + project.getName() + ", duration: " + project.getCurrentDuration());
-
-        		dateNode.setProperty(
-        				"#" + project.getName(), 
-        				project.getCurrentDuration().toString());
-        	}
-        	if (activeProject != null)
-        	{
-        		dateNode.setProperty("active", activeProject.getName());
-        		dateNode.setProperty("startTime", activeProject.getStartTime().toString());
-        		System.out.println("Active project: " + activeProject.getName());
-        		System.out.println("Start time: " + activeProject.getStartTime());
-        		System.out.println("Current duration: " + activeProject.getCurrentDuration());
-        	}
-        	
-            tx.success();
-            System.out.println("Stored data node for date " + date.toString());
-        }
-
-    }
-    
-    @Override
-    public Project loadTimexData(LocalDate date, List<Project> projects, boolean isToday)
-    {
-    	Map<String, Project> projectsByName = new HashMap<>();
-    	projects.forEach(p -> projectsByName.put(p.getName(), p));
-    	Project activeProject = null;
-    	
-        try ( Transaction tx = graphDb.beginTx() )
-        {
     	    try ( ResourceIterator<Node> dateNodes =
-    	    		graphDb.findNodesByLabelAndProperty(dateLabel, "date", date.toString()).iterator() )
+    	    		GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(dateLabel).iterator() )
     	    {
     	    	while (dateNodes.hasNext())
     	    	{
-	    			System.out.println("Loading timex data");
     	    		Node node = dateNodes.next();
-    	    		String activeName = null;
-    	    		LocalTime startTime = null;
-    	    		if (node.hasProperty("active"))
-    	    		{
-    	    			activeName = (String)node.getProperty("active");
-    	    		}
-    	    		if (node.hasProperty("startTime"))
-    	    		{
-    	    			startTime = LocalTime.parse((String)node.getProperty("startTime"));
-    	    		}
-
     	    		for (String key : node.getPropertyKeys())
     	    		{
     	    			if (key.startsWith("#"))
     	    			{
-    	    				String name = key.substring(1);
-    	    				Project project;
-    	    				if (projectsByName.containsKey(name))
-    	    				{
-    	    					project = projectsByName.get(name);
-    	    				}
-    	    				else
-    	    				{
-    	    					project = new Project(name);
-    	    					projects.add(project);
-    	    				}
-    	    				Duration duration = Duration.parse((String)node.getProperty(key));
-    	    				System.out.println("Project " + project.getName() + " has duration " + duration);
-    	    				project.setCurrentDuration(duration);
-        	    			if (project.getName().equals(activeName))
-        	    			{
-        	    				if (!isToday)
-        	    				{
-        	    					project.endOfDay();
-        	    				}
-        	    				else
-        	    				{
-	        	    				activeProject = project;
-	        	    				project.setStartTime(startTime);
-	        	    				project.setDuration(project.getCurrentDuration());
-            	    				System.out.println("Project " + project.getName() + " has start time " + project.getStartTime());
-        	    				}
-        	    			}
+    	    				Node project = projectNode(key.substring(1), created);
+    	    				Relationship spent = project.createRelationshipTo(node, SPENT);
+    	    				spent.setProperty(SECONDS_KEY, durationOf(node.removeProperty(key)).getSeconds());
     	    			}
     	    		}
+    	    		Object active = node.getProperty("active", null);
+    	    		if (active instanceof String)
+    	    		{
+    	    			node.setProperty("active", projectNode((String)active, created).getId());
+    	    		}
+    	    		migrated++;
     	    	}
     	    }
-    	    tx.success();
-        }
-        return activeProject;
+    	    if (meta == null)
+    	    {
+    	    	meta = graphDb.createNode(metaLabel);
+    	    }
+    	    meta.setProperty("version", FORMAT_VERSION);
+    		tx.success();
+    	}
+    	register(created);
+    	if (migrated > 0)
+    	{
+    		log.info("Migrated {} timex records to project relationships", migrated);
+    	}
+    	return migrated > 0;
     }
     
-    @Override
-    public List<Project> readProjects()
+    /**
+     * Project names are unique. The constraint replaces the plain index on
+     * the name, which has to be dropped first.
+     */
+    private void createProjectConstraint()
+    {
+    	try ( Transaction tx = graphDb.beginTx() )
+    	{
+    		for (ConstraintDefinition constraint : graphDb.schema().getConstraints(projectLabel))
+    		{
+    			if (constraint.isConstraintType(ConstraintType.UNIQUENESS))
+    			{
+    				tx.success();
+    				return;
+    			}
+    		}
+    		for (IndexDefinition index : graphDb.schema().getIndexes(projectLabel))
+    		{
+    			index.drop();
+    		}
+    		tx.success();
+    	}
+    	try ( Transaction tx = graphDb.beginTx() )
+    	{
+    		graphDb.schema().constraintFor( projectLabel )
+    				.assertPropertyIsUnique( "name" )
+    				.create();
+    		tx.success();
+    	}
+    	catch (RuntimeException e)
+    	{
+    		// e.g. duplicate names created before the constraint existed
+    		log.warn("Failed to create the project name constraint: {}", e.getMessage());
+    	}
+    }
+    
+    /**
+     * Reads all project nodes into the registry. This is the only scan of
+     * the project label.
+     */
+    private void loadRegistry()
     {
-        List<Project> projects = new ArrayList<>();
     	try ( Transaction tx = graphDb.beginTx() )
     	{
     	    try ( ResourceIterator<Node> projectNodes =
@@ -200,76 +262,626 @@ public class Neo4JStore implements DataStore
     	        while ( projectNodes.hasNext() )
     	        {
     	        	Node node = projectNodes.next();
-    	        	String name = (String)node.getProperty("name");
-    	        	System.out.println("Found project " + name);
-    	        	Project project = new Project(name);
-    	        	project.setId(node.getId());
-    	            projects.add(project);
+    	        	registry.put(node.getId(), (String)node.getProperty("name"), !node.hasProperty("removed"));
     	        }
     	    }
-    	    
     	    tx.success();
     	}
-    	return projects;
+    	log.info("Registered {} projects", registry.size());
+    }
+    
+    /**
+     * Returns the node of the named project, creating a removed project if
+     * there is none. Must be called inside a transaction. Created nodes are
+     * collected in the given map and only registered once the transaction
+     * has committed, since the id of a node that was rolled back can be
+     * reused.
+     */
+    private Node projectNode(String name, Map<String, Node> created)
+    {
+    	Node node = created.get(name);
+    	if (node == null)
+    	{
+    		node = findProjectNode(name);
+    	}
+    	if (node == null)
+    	{
+    		node = graphDb.createNode(projectLabel);
+    		node.setProperty("name", name);
+    		node.setProperty("removed", true);
+    		created.put(name, node);
+    	}
+    	return node;
+    }
+    
+    private void register(Map<String, Node> created)
+    {
+    	created.forEach((name, node) -> registry.put(node.getId(), name, false));
+    }
+    
+    private Node findProjectNode(String name)
+    {
+    	Long id = registry.idOf(name);
+    	if (id == null)
+    	{
+    		return null;
+    	}
+    	try
+    	{
+    		return graphDb.getNodeById(id);
+    	}
+    	catch (NotFoundException e)
+    	{
+    		// created in a transaction that was rolled back
+    		registry.delete(id);
+    		return null;
+    	}
+    }
+    
+    /**
+     * One-time migration of TimexRecord nodes keyed by an ISO date string
+     * (and indexed on "date") to the numeric epoch day key. The old index
+     * marks a database that has not been migrated yet and is dropped
+     * once all nodes are converted.
+     */
+    private void migrateDateKeys()
+    {
+    	IndexDefinition oldIndex = null;
+    	try ( Transaction tx = graphDb.beginTx() )
+    	{
+    		for (IndexDefinition definition : graphDb.schema().getIndexes(dateLabel))
+    		{
+    			for (String key : definition.getPropertyKeys())
+    			{
+    				if (key.equals("date"))
+    				{
+    					oldIndex = definition;
+    				}
+    			}
+    		}
+    		tx.success();
+    	}
+    	if (oldIndex == null)
+    	{
+    		return;
+    	}
+    	
+    	int migrated = 0;
+    	try ( Transaction tx = graphDb.beginTx() )
+    	{
+    		Index<Node> index = graphDb.index().forNodes(DAY_INDEX);
+    	    try ( ResourceIterator<Node> dateNodes =
+    	    		GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(dateLabel).iterator() )
+    	    {
+    	    	while (dateNodes.hasNext())
+    	    	{
+    	    		Node node = dateNodes.next();
+    	    		if (node.hasProperty("date"))
+    	    		{
+    	    			long day = LocalDate.parse((String)node.getProperty("date")).toEpochDay();
+    	    			node.removeProperty("date");
+    	    			node.setProperty(DAY_KEY, day);
+    	    			index.add(node, DAY_KEY, ValueContext.numeric(day));
+    	    			migrated++;
+    	    		}
+    	    	}
+    	    }
+    		tx.success();
+    	}
+    	try ( Transaction tx = graphDb.beginTx() )
+    	{
+    		oldIndex.drop();
+    		tx.success();
+    	}
+    	log.info("Migrated {} timex records to epoch day keys", migrated);
+    }
+    
+    private Node findDateNode(LocalDate date)
+    {
+    	Node dateNode = null;
+	    try ( ResourceIterator<Node> dateNodes =
+	    		graphDb.findNodesByLabelAndProperty(dateLabel, DAY_KEY, date.toEpochDay()).iterator() )
+	    {
+	    	while (dateNodes.hasNext())
+	    	{
+	    		dateNode = dateNodes.next();
+	    	}
+	    }
+	    return dateNode;
+    }
+    
+    private DayRecord readDayRecord(Node node)
+    {
+    	LocalDate date = LocalDate.ofEpochDay((Long)node.getProperty(DAY_KEY));
+    	String activeName = null;
+    	LocalTime startTime = null;
+    	long activeId = (Long)node.getProperty("active", -1L);
+    	if (node.hasProperty("startTime"))
+    	{
+    		startTime = timeOf(node.getProperty("startTime"));
+    	}
+    	Map<String, Duration> durations = new LinkedHashMap<>();
+    	int scanned = 0;
+    	for (Relationship spent : node.getRelationships(SPENT, Direction.INCOMING))
+    	{
+    		scanned++;
+    		Node project = spent.getStartNode();
+    		String name = (String)project.getProperty("name");
+    		durations.put(name, Duration.ofSeconds((Long)spent.getProperty(SECONDS_KEY)));
+    		if (project.getId() == activeId)
+    		{
+    			activeName = name;
+    		}
+    	}
+    	if (activeId != -1 && activeName == null)
+    	{
+    		activeName = registry.nameOf(activeId);
+    	}
+    	StoreCounters.scanned(scanned);
+    	return new DayRecord(date, durations, activeName, startTime);
+    }
+    
+    @Override
+    public void storeDay(DayRecord record)
+    {
+    	int written;
+    	Map<String, Node> created = new HashMap<>();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+        	written = writeDayRecord(record, created);
+            tx.success();
+        }
+        register(created);
+        lastPropertiesWritten = written;
+        totalPropertiesWritten.addAndGet(written);
+        StoreCounters.written(written);
+        log.debug("Stored data node for date {}, {} properties written", record.getDate(), written);
+    }
+    
+    /**
+     * Stores a batch of days in a single transaction.
+     */
+    @Override
+    public void storeDays(Collection<DayRecord> records)
+    {
+    	int written = 0;
+    	Map<String, Node> created = new HashMap<>();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+        	for (DayRecord record : records)
+        	{
+        		written += writeDayRecord(record, created);
+        	}
+            tx.success();
+        }
+        register(created);
+        lastPropertiesWritten = written;
+        totalPropertiesWritten.addAndGet(written);
+        StoreCounters.written(written);
+        log.debug("Stored {} data nodes, {} properties written", records.size(), written);
+    }
+    
+    private int writeDayRecord(DayRecord record, Map<String, Node> created)
+    {
+    	LocalDate date = record.getDate();
+    	Node dateNode = findDateNode(date);
+	    if (dateNode == null)
+	    {
+	    	dateNode = graphDb.createNode();
+        	dateNode.addLabel(dateLabel);
+        	dateNode.setProperty(DAY_KEY, date.toEpochDay());
+        	dayIndex.add(dateNode, DAY_KEY, ValueContext.numeric(date.toEpochDay()));
+	    }
+    	// Only touch the relationships that differ from the persisted state,
+    	// and add the difference to the week and month rollups
+    	int written = 0;
+    	Map<Long, Relationship> existing = new HashMap<>();
+    	for (Relationship spent : dateNode.getRelationships(SPENT, Direction.INCOMING))
+    	{
+    		existing.put(spent.getStartNode().getId(), spent);
+    	}
+    	Map<Long, Long> deltas = new HashMap<>();
+    	for (Map.Entry<String, Duration> entry : record.getDurations().entrySet())
+    	{
+    		Node project = projectNode(entry.getKey(), created);
+    		long seconds = entry.getValue().getSeconds();
+    		Relationship spent = existing.remove(project.getId());
+    		long previous = 0;
+    		if (spent == null)
+    		{
+    			spent = project.createRelationshipTo(dateNode, SPENT);
+    		}
+    		else
+    		{
+    			previous = (Long)spent.getProperty(SECONDS_KEY);
+    			if (previous == seconds)
+    			{
+    				continue;
+    			}
+    		}
+    		if (log.isTraceEnabled())
+    		{
+    			log.trace("Storing project {}, duration: {}", entry.getKey(), entry.getValue());
+    		}
+    		spent.setProperty(SECONDS_KEY, seconds);
+    		deltas.put(project.getId(), seconds - previous);
+    		written++;
+    	}
+    	for (Map.Entry<Long, Relationship> entry : existing.entrySet())
+    	{
+    		deltas.put(entry.getKey(), -(Long)entry.getValue().getProperty(SECONDS_KEY));
+    		entry.getValue().delete();
+    		written++;
+    	}
+    	rollups.add(date, deltas);
+    	if (record.getActiveName() != null)
+    	{
+    		if (setIfChanged(dateNode, "active", projectNode(record.getActiveName(), created).getId()))
+    		{
+    			log.trace("Active project: {}", record.getActiveName());
+    			written++;
+    		}
+    		// a project that was never started has no start time
+    		if (record.getStartTime() == null)
+    		{
+    			if (dateNode.removeProperty("startTime") != null)
+    			{
+    				written++;
+    			}
+    		}
+    		else if (setIfChanged(dateNode, "startTime", record.getStartTime().toNanoOfDay()))
+    		{
+    			log.trace("Start time: {}", record.getStartTime());
+    			written++;
+    		}
+    	}
+    	else
+    	{
+    		if (dateNode.removeProperty("active") != null)
+    		{
+    			written++;
+    		}
+    		if (dateNode.removeProperty("startTime") != null)
+    		{
+    			written++;
+    		}
+    	}
+    	return written;
+    }
+    
+    /**
+     * Durations are stored as long seconds. Older stores hold ISO-8601
+     * strings, which are read until the property is next written.
+     */
+    private static Duration durationOf(Object value)
+    {
+    	if (value instanceof String)
+    	{
+    		return DurationCodec.parseIso((String)value);
+    	}
+    	return Duration.ofSeconds((Long)value);
+    }
+    
+    /**
+     * Start times are stored as long nanoseconds of the day, or as ISO-8601
+     * strings in older stores.
+     */
+    private static LocalTime timeOf(Object value)
+    {
+    	if (value instanceof String)
+    	{
+    		return LocalTime.parse((String)value);
+    	}
+    	return LocalTime.ofNanoOfDay((Long)value);
+    }
+    
+    private static boolean setIfChanged(Node node, String key, Object value)
+    {
+    	if (value.equals(node.getProperty(key, null)))
+    	{
+    		return false;
+    	}
+    	node.setProperty(key, value);
+    	return true;
+    }
+    
+    /**
+     * Returns the number of properties written or removed by the last call
+     * to {@link #storeDay(DayRecord)} or {@link #storeDays(Collection)}.
+     */
+    public int getLastPropertiesWritten()
+    {
+    	return lastPropertiesWritten;
+    }
+    
+    public long getTotalPropertiesWritten()
+    {
+    	return totalPropertiesWritten.get();
+    }
+    
+    /**
+     * Sets the pool used for reports over ranges longer than its chunk
+     * size, or null to report serially.
+     */
+    public void setParallelReport(ParallelReport parallelReport)
+    {
+    	this.parallelReport = parallelReport;
+    }
+    
+    @Override
+    public DayRecord loadDay(LocalDate date)
+    {
+    	DayRecord record = DayRecord.empty(date);
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+        	Node node = findDateNode(date);
+        	if (node != null)
+        	{
+        		record = readDayRecord(node);
+        	}
+    	    tx.success();
+        }
+        log.debug("Loaded timex data for {}", date);
+        return record;
+    }
+    
+    /**
+     * Returns the listed projects from the registry.
+     */
+    @Override
+    public List<Project> readProjects()
+    {
+    	return registry.listedProjects();
+    }
+    
+    @Override
+    public Project findProject(String name)
+    {
+    	return registry.find(name);
+    }
+    
+    /**
+     * Returns the stored days in the given range (inclusive) in date order,
+     * using a single ordered scan of the numeric day index.
+     */
+    @Override
+    public List<DayRecord> loadRange(LocalDate startDate, LocalDate endDate)
+    {
+    	List<DayRecord> records = new ArrayList<>();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+        	try ( IndexHits<Node> dateNodes = queryRange(startDate, endDate) )
+        	{
+        		for (Node node : dateNodes)
+        		{
+        			records.add(readDayRecord(node));
+        		}
+        	}
+        	tx.success();
+        }
+        return records;
+    }
+    
+    /**
+     * Streams the days of the range from the day index, one month per
+     * read transaction.
+     */
+    @Override
+    public void streamReport(LocalDate startDate, LocalDate endDate, ReportConsumer consumer)
+    {
+    	LocalDate date = startDate;
+    	while (!date.isAfter(endDate))
+    	{
+    		LocalDate monthEnd = date.with(TemporalAdjusters.lastDayOfMonth());
+    		if (monthEnd.isAfter(endDate))
+    		{
+    			monthEnd = endDate;
+    		}
+	        int scanned = 0;
+	        try ( Transaction tx = graphDb.beginTx();
+	        	  IndexHits<Node> dateNodes = queryRange(date, monthEnd) )
+	        {
+	        	for (Node node : dateNodes)
+	        	{
+	        		LocalDate day = LocalDate.ofEpochDay((Long)node.getProperty(DAY_KEY));
+	        		for (Relationship spent : node.getRelationships(SPENT, Direction.INCOMING))
+	        		{
+	        			scanned++;
+	        			String name = registry.nameOf(spent.getStartNode().getId());
+	        			if (!consumer.accept(day, name, (Long)spent.getProperty(SECONDS_KEY)))
+	        			{
+	        				tx.success();
+	        				return;
+	        			}
+	        		}
+	        	}
+	        	tx.success();
+	        }
+	        finally
+	        {
+	        	StoreCounters.scanned(scanned);
+	        }
+	        date = monthEnd.plusDays(1);
+    	}
+    }
+    
+    /**
+     * Follows the SPENT relationships of the project node, so only the days
+     * on which the project was recorded are visited.
+     */
+    @Override
+    public void series(String project, LocalDate startDate, LocalDate endDate, long[] seconds)
+    {
+    	int length = DataStore.seriesLength(startDate, endDate, seconds);
+    	Arrays.fill(seconds, 0, length, 0L);
+    	long first = startDate.toEpochDay();
+    	long last = endDate.toEpochDay();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+        	Node projectNode = findProjectNode(project);
+        	if (projectNode != null)
+        	{
+        		int scanned = 0;
+        		for (Relationship spent : projectNode.getRelationships(SPENT, Direction.OUTGOING))
+        		{
+        			scanned++;
+        			long day = (Long)spent.getEndNode().getProperty(DAY_KEY);
+        			if (day >= first && day <= last)
+        			{
+        				seconds[(int)(day - first)] = (Long)spent.getProperty(SECONDS_KEY);
+        			}
+        		}
+        		StoreCounters.scanned(scanned);
+        	}
+        	tx.success();
+        }
     }
     
+    /**
+     * Sums the durations in the given range (inclusive). Whole months and
+     * whole ISO weeks are read from the rollups, the remaining days are
+     * read with a range scan of the day index.
+     */
     @Override
     public Map<String, Duration> report(LocalDate startDate, LocalDate endDate)
     {
+    	ParallelReport parallel = parallelReport;
+    	if (parallel != null 
+    			&& ChronoUnit.DAYS.between(startDate, endDate) + 1 > parallel.getChunkDays())
+    	{
+    		return parallel.report(this, startDate, endDate);
+    	}
     	Map<String, Duration> durations = new HashMap<>();
+    	Map<Long, Long> totals = new HashMap<>();
+    	int scanned = 0;
         try ( Transaction tx = graphDb.beginTx() )
         {
         	LocalDate date = startDate;
+        	LocalDate runStart = startDate;
         	while (!date.isAfter(endDate))
         	{
-//    			System.out.println("Loading timex data for " + date);
-
-	    	    try ( ResourceIterator<Node> dateNodes =
-	    	    		graphDb.findNodesByLabelAndProperty(dateLabel, "date", date.toString()).iterator() )
-	    	    {
-	    	    	while (dateNodes.hasNext())
-	    	    	{
-	    	    		Node node = dateNodes.next();
-	    	    		for (String key : node.getPropertyKeys())
-	    	    		{
-	    	    			if (key.startsWith("#"))
-	    	    			{
-	    	    				String name = key.substring(1);
-	    	    				Duration duration;
-	    	    				if (!durations.containsKey(name))
-	    	    				{
-	    	    					duration = Duration.ZERO;
-	    	    				}
-	    	    				else
-	    	    				{
-	    	    					duration = durations.get(name);
-	    	    				}
-	    	    				Duration newDuration = duration.plus(Duration.parse((String)node.getProperty(key)));
-	    	    				durations.put(name, newDuration);
-	    	    			}
-	    	    		}
-	    	    	}
-	    	    }
-	    	    date = date.plusDays(1);
+        		LocalDate next;
+        		String period;
+        		if (date.getDayOfMonth() == 1 
+        				&& !date.plusMonths(1).minusDays(1).isAfter(endDate))
+        		{
+        			next = date.plusMonths(1);
+        			period = Neo4JRollups.monthKey(date);
+        		}
+        		else if (date.getDayOfWeek() == DayOfWeek.MONDAY 
+        				&& !date.plusDays(6).isAfter(endDate))
+        		{
+        			next = date.plusWeeks(1);
+        			period = Neo4JRollups.weekKey(date);
+        		}
+        		else
+        		{
+        			date = date.plusDays(1);
+        			continue;
+        		}
+        		if (runStart.isBefore(date))
+        		{
+        			scanned += sumDays(runStart, date.minusDays(1), totals);
+        		}
+        		scanned += rollups.read(period, totals);
+        		date = next;
+        		runStart = next;
+        	}
+        	if (!runStart.isAfter(endDate))
+        	{
+        		scanned += sumDays(runStart, endDate, totals);
         	}
+        	totals.forEach((projectId, seconds) -> durations.put(
+        			registry.nameOf(projectId), Duration.ofSeconds(seconds)));
         	tx.success();
         }
+        StoreCounters.scanned(scanned);
         return durations;
     }
     
-    private static void registerShutdownHook( final GraphDatabaseService graphDb )
+    /**
+     * Returns the number of relationships read.
+     */
+    private int sumDays(LocalDate startDate, LocalDate endDate, Map<Long, Long> totals)
     {
-        // Registers a shutdown hook for the Neo4j instance so that it
-        // shuts down nicely when the VM exits (even if you "Ctrl-C" the
-        // running application).
-        Runtime.getRuntime().addShutdownHook( new Thread()
-        {
-            @Override
-            public void run()
-            {
-                graphDb.shutdown();
-            }
-        } );
+    	int scanned = 0;
+    	try ( IndexHits<Node> dateNodes = queryRange(startDate, endDate) )
+    	{
+    		for (Node node : dateNodes)
+    		{
+    			scanned += addSpent(node, totals);
+    		}
+    	}
+    	return scanned;
+    }
+    
+    private static int addSpent(Node dateNode, Map<Long, Long> totals)
+    {
+    	int scanned = 0;
+    	for (Relationship spent : dateNode.getRelationships(SPENT, Direction.INCOMING))
+    	{
+    		totals.merge(spent.getStartNode().getId(), (Long)spent.getProperty(SECONDS_KEY), Long::sum);
+    		scanned++;
+    	}
+    	return scanned;
+    }
+    
+    /**
+     * Checks the week and month rollups against the day nodes and returns
+     * the number of rollups that are inconsistent. If repair is set the 
+     * inconsistent rollups are rebuilt from the day nodes.
+     */
+    public int checkRollups(boolean repair)
+    {
+    	Map<String, Map<Long, Long>> expected = new HashMap<>();
+    	int inconsistent;
+    	try ( Transaction tx = graphDb.beginTx() )
+    	{
+    	    try ( ResourceIterator<Node> dateNodes =
+    	    		GlobalGraphOperations.at(graphDb).getAllNodesWithLabel(dateLabel).iterator() )
+    	    {
+    	    	while (dateNodes.hasNext())
+    	    	{
+    	    		Node node = dateNodes.next();
+    	    		LocalDate date = LocalDate.ofEpochDay((Long)node.getProperty(DAY_KEY));
+    	    		Map<Long, Long> seconds = new HashMap<>();
+    	    		addSpent(node, seconds);
+    	    		seconds.values().removeIf(value -> value == 0);
+    	    		for (String period : new String[] {
+    	    				Neo4JRollups.weekKey(date), 
+    	    				Neo4JRollups.monthKey(date) })
+    	    		{
+    	    			Map<Long, Long> totals = expected.computeIfAbsent(period, k -> new HashMap<>());
+    	    			seconds.forEach((projectId, value) -> totals.merge(projectId, value, Long::sum));
+    	    		}
+    	    	}
+    	    }
+    	    inconsistent = rollups.check(expected, repair);
+    		tx.success();
+    	}
+    	if (inconsistent > 0)
+    	{
+    		log.warn("{} {} inconsistent rollups", repair ? "Rebuilt" : "Found", inconsistent);
+    	}
+    	return inconsistent;
+    }
+    
+    private IndexHits<Node> queryRange(LocalDate startDate, LocalDate endDate)
+    {
+    	QueryContext query = QueryContext.numericRange(
+    			DAY_KEY, startDate.toEpochDay(), endDate.toEpochDay(), true, true)
+    			.sortNumeric(DAY_KEY, false);
+    	return dayIndex.query(query);
+    }
+    
+    @Override
+    public void shutdown()
+    {
+    	if (parallelReport != null)
+    	{
+    		parallelReport.shutdown();
+    	}
+    	graphDb.shutdown();
     }
 
     @Override
@@ -277,27 +889,86 @@ public class Neo4JStore implements DataStore
 	{
         try ( Transaction tx = graphDb.beginTx() )
         {
-        	Node projectNode = graphDb.createNode();
-        	projectNode.setProperty( "name", project.getName());
-        	projectNode.addLabel(projectLabel);
+        	// a project that was removed earlier is restored with its history
+        	Node projectNode = findProjectNode(project.getName());
+        	if (projectNode == null)
+        	{
+        		projectNode = graphDb.createNode();
+        		projectNode.setProperty( "name", project.getName());
+        		projectNode.addLabel(projectLabel);
+        	}
+        	projectNode.removeProperty("removed");
         	
             tx.success();
             project.setId(projectNode.getId());
-        	System.out.println("Added project " + project.getName() 
-        			+ " with id = " + project.getId());
         }
+        // only registered once committed
+        registry.put(project.getId(), project.getName(), true);
+    	log.info("Added project {} with id = {}", project.getName(), project.getId());
 	}
 
+    /**
+     * Removes the project from the project list. Its node is kept, marked
+     * as removed, if it has any recorded history.
+     */
     @Override
 	public void remove(Project project) 
 	{
+    	Node node;
+    	boolean deleted = false;
     	try ( Transaction tx = graphDb.beginTx() )
     	{
-    		Node node = graphDb.getNodeById(project.getId());
-    		node.delete();
+    		node = findProjectNode(project.getName());
+    		if (node != null)
+    		{
+    			if (node.hasRelationship(SPENT, Direction.OUTGOING))
+    			{
+    				node.setProperty("removed", true);
+    			}
+    			else
+    			{
+    				node.delete();
+    				deleted = true;
+    			}
+    		}
     		
     		tx.success();
     	}
-		System.out.println("Removed project " + project.getName());
+    	if (deleted)
+    	{
+    		registry.delete(node.getId());
+    	}
+    	else if (node != null)
+    	{
+    		registry.put(node.getId(), project.getName(), false);
+    	}
+		log.info("Removed project {}", project.getName());
 	}
+
+    /**
+     * Renames the project node. Its history stays attached to it.
+     */
+    @Override
+    public void rename(Project project, String name)
+    {
+    	Node node;
+    	try ( Transaction tx = graphDb.beginTx() )
+    	{
+    		Node existing = findProjectNode(name);
+    		if (existing != null)
+    		{
+    			throw DataStore.nameTaken(name, registry.isListed(existing.getId()));
+    		}
+    		node = findProjectNode(project.getName());
+    		if (node != null)
+    		{
+    			node.setProperty("name", name);
+    		}
+    		tx.success();
+    	}
+    	if (node != null)
+    	{
+    		registry.put(node.getId(), name, registry.isListed(node.getId()));
+    	}
+    }
 }
@@ -0,0 +1,167 @@
+package jtimex.store;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call count, errors, a latency histogram, and the rows read and the
+ * properties written by the store for one store operation. Recording only
+ * updates counters, so it can be left on in production.
+ */
+public class OperationStats implements OperationStatsMBean
+{
+	// bucket i counts latencies below 2^i microseconds
+	private static final int BUCKETS = 40;
+
+	private final String name;
+	private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+	private final LongAdder rowsScanned = new LongAdder();
+	private final LongAccumulator maxRowsScanned = new LongAccumulator(Math::max, 0);
+	private final LongAdder propertiesWritten = new LongAdder();
+	private final LongAccumulator maxPropertiesWritten = new LongAccumulator(Math::max, 0);
+
+	public OperationStats(String name)
+	{
+		this.name = name;
+	}
+
+	public void record(long nanos, long scanned, long written)
+	{
+		long micros = nanos / 1000;
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		histogram.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+		count.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+		rowsScanned.add(scanned);
+		maxRowsScanned.accumulate(scanned);
+		propertiesWritten.add(written);
+		maxPropertiesWritten.accumulate(written);
+	}
+
+	public void recordError()
+	{
+		errors.increment();
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public long getCount()
+	{
+		return count.sum();
+	}
+
+	@Override
+	public long getErrors()
+	{
+		return errors.sum();
+	}
+
+	@Override
+	public double getMeanMicros()
+	{
+		long n = count.sum();
+		return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+	}
+
+	@Override
+	public long getMaxMicros()
+	{
+		return maxNanos.get() / 1000;
+	}
+
+	@Override
+	public long getP50Micros()
+	{
+		return percentile(0.5);
+	}
+
+	@Override
+	public long getP99Micros()
+	{
+		return percentile(0.99);
+	}
+
+	private long percentile(double fraction)
+	{
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i=0; i<BUCKETS; i++)
+		{
+			counts[i] = histogram.get(i);
+			total += counts[i];
+		}
+		long rank = (long)Math.ceil(total * fraction);
+		long seen = 0;
+		for (int i=0; i<BUCKETS; i++)
+		{
+			seen += counts[i];
+			if (seen >= rank && seen > 0)
+			{
+				return 1L << i;
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public long getRowsScanned()
+	{
+		return rowsScanned.sum();
+	}
+
+	@Override
+	public long getMaxRowsScanned()
+	{
+		return maxRowsScanned.get();
+	}
+
+	@Override
+	public long getPropertiesWritten()
+	{
+		return propertiesWritten.sum();
+	}
+
+	@Override
+	public long getMaxPropertiesWritten()
+	{
+		return maxPropertiesWritten.get();
+	}
+
+	@Override
+	public void reset()
+	{
+		for (int i=0; i<BUCKETS; i++)
+		{
+			histogram.set(i, 0);
+		}
+		count.reset();
+		errors.reset();
+		totalNanos.reset();
+		maxNanos.reset();
+		rowsScanned.reset();
+		maxRowsScanned.reset();
+		propertiesWritten.reset();
+		maxPropertiesWritten.reset();
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s: %d calls, %d errors, mean %.0fus, p50 %dus, p99 %dus, max %dus, "
+				+ "%d rows scanned (max %d), %d properties written (max %d)",
+				name, getCount(), getErrors(), getMeanMicros(), getP50Micros(), getP99Micros(),
+				getMaxMicros(), getRowsScanned(), getMaxRowsScanned(),
+				getPropertiesWritten(), getMaxPropertiesWritten());
+	}
+}
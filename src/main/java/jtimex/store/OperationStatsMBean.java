@@ -0,0 +1,46 @@
+package jtimex.store;
+
+/**
+ * JMX view of the statistics of one store operation. Latencies are in
+ * microseconds, percentiles are the upper bound of a power of two bucket.
+ */
+public interface OperationStatsMBean
+{
+	String getName();
+
+	long getCount();
+
+	long getErrors();
+
+	double getMeanMicros();
+
+	long getMaxMicros();
+
+	long getP50Micros();
+
+	long getP99Micros();
+
+	/**
+	 * Returns the number of rows the store read, summed over all calls.
+	 */
+	long getRowsScanned();
+
+	/**
+	 * Returns the largest number of rows the store read in one call.
+	 */
+	long getMaxRowsScanned();
+
+	/**
+	 * Returns the number of properties the store wrote, summed over all
+	 * calls.
+	 */
+	long getPropertiesWritten();
+
+	/**
+	 * Returns the largest number of properties the store wrote in one call,
+	 * i.e. the largest transaction.
+	 */
+	long getMaxPropertiesWritten();
+
+	void reset();
+}
@@ -0,0 +1,104 @@
+package jtimex.store;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Splits a report range into chunks of at most the given number of days,
+ * reports each chunk as its own task on a fork/join pool and merges the
+ * partial results. Each chunk is read with a separate call to the store,
+ * so for Neo4JStore each chunk has its own read transaction.
+ */
+public class ParallelReport
+{
+	private final ForkJoinPool pool;
+	private final int chunkDays;
+
+	public ParallelReport(int parallelism, int chunkDays)
+	{
+		if (chunkDays < 1)
+		{
+			throw new IllegalArgumentException("Chunk size must be at least one day: " + chunkDays);
+		}
+		this.pool = new ForkJoinPool(parallelism);
+		this.chunkDays = chunkDays;
+	}
+
+	public int getChunkDays()
+	{
+		return chunkDays;
+	}
+
+	public int getParallelism()
+	{
+		return pool.getParallelism();
+	}
+
+	/**
+	 * The rows the chunks read on the pool's threads are added to the
+	 * {@link StoreCounters} of the calling thread.
+	 */
+	public Map<String, Duration> report(DataStore store, LocalDate startDate, LocalDate endDate)
+	{
+		LongAdder scanned = new LongAdder();
+		Map<String, Duration> durations = pool.invoke(new Chunk(store, startDate, endDate, scanned));
+		StoreCounters.scanned(scanned.sum());
+		return durations;
+	}
+
+	public void shutdown()
+	{
+		pool.shutdown();
+	}
+
+	private class Chunk extends RecursiveTask<Map<String, Duration>>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final DataStore store;
+		private final LocalDate startDate;
+		private final LocalDate endDate;
+		private final LongAdder scanned;
+
+		Chunk(DataStore store, LocalDate startDate, LocalDate endDate, LongAdder scanned)
+		{
+			this.store = store;
+			this.startDate = startDate;
+			this.endDate = endDate;
+			this.scanned = scanned;
+		}
+
+		@Override
+		protected Map<String, Duration> compute()
+		{
+			long days = ChronoUnit.DAYS.between(startDate, endDate) + 1;
+			if (days <= chunkDays)
+			{
+				long before = StoreCounters.getScanned();
+				Map<String, Duration> durations = store.report(startDate, endDate);
+				scanned.add(StoreCounters.getScanned() - before);
+				return durations;
+			}
+			// split on a chunk boundary, moved back to the start of its month
+			// so that stores with monthly rollups can still use them
+			long chunks = (days + chunkDays - 1) / chunkDays;
+			LocalDate middle = startDate.plusDays((chunks / 2) * chunkDays);
+			if (middle.withDayOfMonth(1).isAfter(startDate))
+			{
+				middle = middle.withDayOfMonth(1);
+			}
+			Chunk left = new Chunk(store, startDate, middle.minusDays(1), scanned);
+			left.fork();
+			Map<String, Duration> durations = new HashMap<>(new Chunk(store, middle, endDate, scanned).compute());
+			left.join().forEach((name, duration) -> durations.merge(name, duration, Duration::plus));
+			return durations;
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+package jtimex.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jtimex.Project;
+
+/**
+ * In-memory map between project names and ids, including the projects
+ * that were removed from the project list but still have history. It is
+ * loaded once when the store opens and then kept up to date by the store,
+ * so that lookups by name or id do not go to the database.
+ */
+public class ProjectRegistry
+{
+	private final Map<String, Long> ids = new HashMap<>();
+	private final Map<Long, String> names = new HashMap<>();
+	// ids of the listed projects, in the order they were registered
+	private final Set<Long> listed = new LinkedHashSet<>();
+
+	public synchronized void put(long id, String name, boolean isListed)
+	{
+		String previous = names.put(id, name);
+		if (previous != null)
+		{
+			ids.remove(previous);
+		}
+		ids.put(name, id);
+		if (isListed)
+		{
+			listed.add(id);
+		}
+		else
+		{
+			listed.remove(id);
+		}
+	}
+
+	public synchronized void delete(long id)
+	{
+		String name = names.remove(id);
+		if (name != null)
+		{
+			ids.remove(name);
+		}
+		listed.remove(id);
+	}
+
+	/**
+	 * Returns the id of the named project, listed or not, or null.
+	 */
+	public synchronized Long idOf(String name)
+	{
+		return ids.get(name);
+	}
+
+	public synchronized String nameOf(long id)
+	{
+		return names.get(id);
+	}
+
+	public synchronized boolean isListed(long id)
+	{
+		return listed.contains(id);
+	}
+
+	/**
+	 * Returns the listed project with the given name, or null.
+	 */
+	public synchronized Project find(String name)
+	{
+		Long id = ids.get(name);
+		if (id == null || !listed.contains(id))
+		{
+			return null;
+		}
+		Project project = new Project(name);
+		project.setId(id);
+		return project;
+	}
+
+	/**
+	 * Returns new project objects for the listed projects.
+	 */
+	public synchronized List<Project> listedProjects()
+	{
+		List<Project> projects = new ArrayList<>(listed.size());
+		for (long id : listed)
+		{
+			Project project = new Project(names.get(id));
+			project.setId(id);
+			projects.add(project);
+		}
+		return projects;
+	}
+
+	public synchronized int size()
+	{
+		return names.size();
+	}
+
+}
@@ -0,0 +1,13 @@
+package jtimex.store;
+
+import java.time.LocalDate;
+
+/**
+ * Receives the rows of a streamed report in date order, one row per
+ * project and day. Returning false stops the report.
+ */
+@FunctionalInterface
+public interface ReportConsumer
+{
+	boolean accept(LocalDate date, String project, long seconds);
+}
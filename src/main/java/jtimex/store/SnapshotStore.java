@@ -0,0 +1,388 @@
+package jtimex.store;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import jtimex.Project;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes today's tracker state (the listed projects, their durations and
+ * the active project with its start time) to a small binary file whenever
+ * it is stored, so that the next launch can show it before the store is
+ * open. The snapshot is a cache only: the store is always authoritative.
+ * It is written on a background thread, to a temporary file that then
+ * replaces the last snapshot, so a crash leaves one or the other.
+ * <p>
+ * File layout: magic, epoch day, number of projects, then the name and
+ * seconds of each project, then whether a project is active followed by
+ * its name and start time in nanos of the day.
+ */
+public class SnapshotStore implements DataStore
+{
+	private static final Logger log = LoggerFactory.getLogger(SnapshotStore.class);
+	private static final int MAGIC = 0x544d5853;
+
+	private final DataStore store;
+	private final File file;
+	// the latest snapshot, and the one waiting to be written if any
+	private DayRecord today;
+	private DayRecord unwritten;
+	private final Object fileLock = new Object();
+	private ExecutorService writer;
+
+	public SnapshotStore(DataStore store)
+	{
+		this(store, "target/timex.snapshot");
+	}
+
+	public SnapshotStore(DataStore store, String path)
+	{
+		this.store = store;
+		this.file = new File(path);
+	}
+
+	/**
+	 * Reads the snapshot at the given path, or returns null if there is
+	 * none or it cannot be read.
+	 */
+	public static DayRecord readSnapshot(String path)
+	{
+		File file = new File(path);
+		if (!file.exists())
+		{
+			return null;
+		}
+		try ( DataInputStream in = new DataInputStream(new FileInputStream(file)) )
+		{
+			if (in.readInt() != MAGIC)
+			{
+				return null;
+			}
+			LocalDate date = LocalDate.ofEpochDay(in.readLong());
+			int count = in.readInt();
+			Map<String, Duration> durations = new LinkedHashMap<>();
+			for (int i=0; i<count; i++)
+			{
+				String name = in.readUTF();
+				durations.put(name, Duration.ofSeconds(in.readLong()));
+			}
+			String activeName = null;
+			LocalTime startTime = null;
+			if (in.readBoolean())
+			{
+				activeName = in.readUTF();
+				long nanos = in.readLong();
+				startTime = nanos < 0 ? null : LocalTime.ofNanoOfDay(nanos);
+			}
+			return new DayRecord(date, durations, activeName, startTime);
+		}
+		catch (IOException e)
+		{
+			log.warn("Ignoring unreadable snapshot {}: {}", file, e.getMessage());
+			return null;
+		}
+	}
+
+	public String getPath()
+	{
+		return file.getPath();
+	}
+
+	/**
+	 * Queues the snapshot to be written, or writes it right away if the
+	 * store is not open. Only the latest of several queued snapshots is
+	 * written.
+	 */
+	private void write(DayRecord record)
+	{
+		boolean queue;
+		synchronized (this)
+		{
+			today = record;
+			queue = unwritten == null;
+			unwritten = record;
+		}
+		if (writer == null || writer.isShutdown())
+		{
+			flush();
+		}
+		else if (queue)
+		{
+			try
+			{
+				writer.execute(this::flush);
+			}
+			catch (RejectedExecutionException e)
+			{
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Writes the queued snapshot, if any.
+	 */
+	void flush()
+	{
+		synchronized (fileLock)
+		{
+			DayRecord record;
+			synchronized (this)
+			{
+				record = unwritten;
+				unwritten = null;
+			}
+			if (record != null)
+			{
+				writeFile(record);
+			}
+		}
+	}
+
+	private void writeFile(DayRecord record)
+	{
+		File tmp = new File(file.getPath() + ".tmp");
+		try ( DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp)) )
+		{
+			out.writeInt(MAGIC);
+			out.writeLong(record.getDate().toEpochDay());
+			out.writeInt(record.getDurations().size());
+			for (Map.Entry<String, Duration> entry : record.getDurations().entrySet())
+			{
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue().getSeconds());
+			}
+			out.writeBoolean(record.getActiveName() != null);
+			if (record.getActiveName() != null)
+			{
+				out.writeUTF(record.getActiveName());
+				out.writeLong(record.getStartTime() == null ? -1 : record.getStartTime().toNanoOfDay());
+			}
+		}
+		catch (IOException e)
+		{
+			log.warn("Failed to write snapshot {}: {}", file, e.getMessage());
+			return;
+		}
+		try
+		{
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			log.warn("Failed to replace snapshot {}: {}", file, e.getMessage());
+		}
+	}
+
+	/**
+	 * Rewrites the last snapshot with the project list changed.
+	 */
+	private void update(String oldName, String newName)
+	{
+		DayRecord today;
+		synchronized (this)
+		{
+			today = this.today;
+		}
+		if (today == null || !today.getDate().equals(LocalDate.now()))
+		{
+			return;
+		}
+		Map<String, Duration> durations = new LinkedHashMap<>();
+		today.getDurations().forEach((name, duration) -> {
+			if (!name.equals(oldName))
+			{
+				durations.put(name, duration);
+			}
+			else if (newName != null)
+			{
+				durations.put(newName, duration);
+			}
+		});
+		if (oldName == null)
+		{
+			durations.putIfAbsent(newName, Duration.ZERO);
+		}
+		String activeName = today.getActiveName();
+		LocalTime startTime = today.getStartTime();
+		if (activeName != null && activeName.equals(oldName))
+		{
+			activeName = newName;
+			startTime = newName == null ? null : startTime;
+		}
+		write(new DayRecord(today.getDate(), durations, activeName, startTime));
+	}
+
+	@Override
+	public void init()
+	{
+		store.init();
+		writer = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "jtimex-snapshot-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void shutdown()
+	{
+		if (writer != null)
+		{
+			writer.shutdown();
+			try
+			{
+				writer.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		try
+		{
+			flush();
+		}
+		finally
+		{
+			store.shutdown();
+		}
+	}
+
+	@Override
+	public List<Project> readProjects()
+	{
+		return store.readProjects();
+	}
+
+	@Override
+	public Project findProject(String name)
+	{
+		return store.findProject(name);
+	}
+
+	@Override
+	public void add(Project project)
+	{
+		store.add(project);
+		update(null, project.getName());
+	}
+
+	@Override
+	public void remove(Project project)
+	{
+		store.remove(project);
+		update(project.getName(), null);
+	}
+
+	@Override
+	public void rename(Project project, String name)
+	{
+		store.rename(project, name);
+		update(project.getName(), name);
+	}
+
+	@Override
+	public void storeDay(DayRecord record)
+	{
+		store.storeDay(record);
+		if (record.getDate().equals(LocalDate.now()))
+		{
+			write(record);
+		}
+	}
+
+	@Override
+	public void storeDays(Collection<DayRecord> records)
+	{
+		store.storeDays(records);
+		records.stream()
+			.filter(r -> r.getDate().equals(LocalDate.now()))
+			.forEach(this::write);
+	}
+
+	@Override
+	public DayRecord loadDay(LocalDate date)
+	{
+		return store.loadDay(date);
+	}
+
+	/**
+	 * Loading today's projects also refreshes the snapshot, since the
+	 * loaded list is the state the tracker resumes from.
+	 */
+	@Override
+	public Project loadTimexData(LocalDate date, List<Project> projects, boolean active)
+	{
+		Project activeProject = store.loadTimexData(date, projects, active);
+		if (active)
+		{
+			write(DayRecord.of(date, projects, activeProject));
+		}
+		return activeProject;
+	}
+
+	@Override
+	public List<DayRecord> loadRange(LocalDate startDate, LocalDate endDate)
+	{
+		return store.loadRange(startDate, endDate);
+	}
+
+	@Override
+	public Map<String, Duration> report(LocalDate startDate, LocalDate endDate)
+	{
+		return store.report(startDate, endDate);
+	}
+
+	@Override
+	public void streamReport(LocalDate startDate, LocalDate endDate, ReportConsumer consumer)
+	{
+		store.streamReport(startDate, endDate, consumer);
+	}
+
+	@Override
+	public void series(String project, LocalDate startDate, LocalDate endDate, long[] seconds)
+	{
+		store.series(project, startDate, endDate, seconds);
+	}
+
+	@Override
+	public void storeInterval(Interval interval)
+	{
+		store.storeInterval(interval);
+	}
+
+	@Override
+	public List<Interval> loadIntervals(LocalDate startDate, LocalDate endDate)
+	{
+		return store.loadIntervals(startDate, endDate);
+	}
+
+	@Override
+	public void streamIntervals(LocalDate startDate, LocalDate endDate, Consumer<Interval> consumer)
+	{
+		store.streamIntervals(startDate, endDate, consumer);
+	}
+
+}
@@ -0,0 +1,70 @@
+package jtimex.store;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import jtimex.Project;
+
+/**
+ * Copies the projects and days of one data store into another, for
+ * example from an existing Neo4j database into a columnar store:
+ * <pre>
+ * StoreConverter &lt;neo4j-db-path&gt; &lt;columnar-dir&gt; [start-date [end-date]]
+ * </pre>
+ */
+public class StoreConverter
+{
+	public static void main(String[] args)
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: StoreConverter <neo4j-db-path> <columnar-dir> [start-date [end-date]]");
+			System.exit(1);
+		}
+		LocalDate startDate = args.length > 2 ? LocalDate.parse(args[2]) : LocalDate.of(1970, 1, 1);
+		LocalDate endDate = args.length > 3 ? LocalDate.parse(args[3]) : LocalDate.now();
+
+		DataStore source = new Neo4JStore(args[0]);
+		DataStore target = new ColumnarStore(args[1]);
+		source.init();
+		target.init();
+		try
+		{
+			int days = convert(source, target, startDate, endDate);
+			System.out.println("Converted " + days + " days");
+		}
+		finally
+		{
+			target.shutdown();
+			source.shutdown();
+		}
+	}
+
+	/**
+	 * Copies the listed projects and all days in the given range, one year
+	 * at a time, and returns the number of days copied.
+	 */
+	public static int convert(DataStore source, DataStore target, LocalDate startDate, LocalDate endDate)
+	{
+		for (Project project : source.readProjects())
+		{
+			target.add(project);
+		}
+		int days = 0;
+		LocalDate date = startDate;
+		while (!date.isAfter(endDate))
+		{
+			LocalDate yearEnd = date.withDayOfYear(date.lengthOfYear());
+			if (yearEnd.isAfter(endDate))
+			{
+				yearEnd = endDate;
+			}
+			List<DayRecord> records = source.loadRange(date, yearEnd);
+			target.storeDays(records);
+			days += records.size();
+			date = yearEnd.plusDays(1);
+		}
+		return days;
+	}
+
+}
@@ -0,0 +1,44 @@
+package jtimex.store;
+
+/**
+ * Counts the rows read and the properties written by the store operations
+ * running on the calling thread. The stores add to the counts as they go,
+ * and a decorator such as {@link InstrumentedStore} takes the difference
+ * over a call. A row is whatever the store reads per day and project: a
+ * relationship or rollup entry in Neo4J, an index entry in the journal and
+ * a matrix row in the columnar store.
+ */
+public final class StoreCounters
+{
+	private static final ThreadLocal<long[]> COUNTS = ThreadLocal.withInitial(() -> new long[2]);
+
+	private StoreCounters()
+	{
+	}
+
+	public static void scanned(long rows)
+	{
+		COUNTS.get()[0] += rows;
+	}
+
+	public static void written(long properties)
+	{
+		COUNTS.get()[1] += properties;
+	}
+
+	/**
+	 * Returns the rows read on this thread so far.
+	 */
+	public static long getScanned()
+	{
+		return COUNTS.get()[0];
+	}
+
+	/**
+	 * Returns the properties written on this thread so far.
+	 */
+	public static long getWritten()
+	{
+		return COUNTS.get()[1];
+	}
+}
@@ -0,0 +1,270 @@
+package jtimex.store;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import jtimex.Project;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queues day records and writes them to the underlying store on a
+ * background thread. Repeated writes for the same date are collapsed into
+ * the latest record, and pending records are flushed in batches on a
+ * fixed schedule, when a batch is full, and on shutdown.
+ * <p>
+ * Reads of a pending day are served from the queue. Range reads and
+ * reports flush the queue first.
+ */
+public class WriteBehindStore implements DataStore
+{
+	private static final Logger log = LoggerFactory.getLogger(WriteBehindStore.class);
+	private final DataStore store;
+	private final long flushIntervalMillis;
+	private final int batchSize;
+
+	// pending records by date, in the order they were first queued
+	private final Map<LocalDate, DayRecord> pending = new LinkedHashMap<>();
+	private final Object flushLock = new Object();
+	private ScheduledExecutorService writer;
+
+	public WriteBehindStore(DataStore store)
+	{
+		this(store, 1000, 32);
+	}
+
+	public WriteBehindStore(DataStore store, long flushIntervalMillis, int batchSize)
+	{
+		this.store = store;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public void init()
+	{
+		store.init();
+		writer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "jtimex-store-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		writer.scheduleWithFixedDelay(
+				this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Flushes all pending records and shuts down the underlying store.
+	 */
+	@Override
+	public void shutdown()
+	{
+		if (writer != null)
+		{
+			writer.shutdown();
+			try
+			{
+				writer.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		try
+		{
+			flush();
+		}
+		finally
+		{
+			store.shutdown();
+		}
+	}
+
+	@Override
+	public void storeDay(DayRecord record)
+	{
+		int size;
+		synchronized (pending)
+		{
+			pending.put(record.getDate(), record);
+			size = pending.size();
+		}
+		if (writer != null && writer.isShutdown())
+		{
+			// stored after shutdown, e.g. while quitting
+			flush();
+		}
+		else if (size >= batchSize && writer != null)
+		{
+			try
+			{
+				writer.execute(this::flushQuietly);
+			}
+			catch (RejectedExecutionException e)
+			{
+				flush();
+			}
+		}
+	}
+
+	@Override
+	public DayRecord loadDay(LocalDate date)
+	{
+		synchronized (pending)
+		{
+			DayRecord record = pending.get(date);
+			if (record != null)
+			{
+				return record;
+			}
+		}
+		return store.loadDay(date);
+	}
+
+	/**
+	 * Writes all pending records to the underlying store. Records stay
+	 * visible to {@link #loadDay(LocalDate)} until they have been written.
+	 */
+	public void flush()
+	{
+		synchronized (flushLock)
+		{
+			List<DayRecord> batch;
+			while (!(batch = nextBatch()).isEmpty())
+			{
+				store.storeDays(batch);
+				synchronized (pending)
+				{
+					// a newer record for the same date may have been queued meanwhile
+					batch.forEach(r -> pending.remove(r.getDate(), r));
+				}
+			}
+		}
+	}
+
+	private void flushQuietly()
+	{
+		try
+		{
+			flush();
+		}
+		catch (RuntimeException e)
+		{
+			// records stay pending and are retried on the next flush
+			log.error("Failed to write timex data", e);
+		}
+	}
+
+	private List<DayRecord> nextBatch()
+	{
+		List<DayRecord> batch = new ArrayList<>();
+		synchronized (pending)
+		{
+			Iterator<DayRecord> records = pending.values().iterator();
+			while (records.hasNext() && batch.size() < batchSize)
+			{
+				batch.add(records.next());
+			}
+		}
+		return batch;
+	}
+
+	public int getPendingCount()
+	{
+		synchronized (pending)
+		{
+			return pending.size();
+		}
+	}
+
+	@Override
+	public List<Project> readProjects()
+	{
+		return store.readProjects();
+	}
+
+	@Override
+	public Project findProject(String name)
+	{
+		return store.findProject(name);
+	}
+
+	@Override
+	public void add(Project project)
+	{
+		store.add(project);
+	}
+
+	@Override
+	public void remove(Project project)
+	{
+		store.remove(project);
+	}
+
+	@Override
+	public void rename(Project project, String name)
+	{
+		// pending days still refer to the old name
+		flush();
+		store.rename(project, name);
+	}
+
+	@Override
+	public List<DayRecord> loadRange(LocalDate startDate, LocalDate endDate)
+	{
+		flush();
+		return store.loadRange(startDate, endDate);
+	}
+
+	@Override
+	public Map<String, Duration> report(LocalDate startDate, LocalDate endDate)
+	{
+		flush();
+		return store.report(startDate, endDate);
+	}
+
+	@Override
+	public void streamReport(LocalDate startDate, LocalDate endDate, ReportConsumer consumer)
+	{
+		flush();
+		store.streamReport(startDate, endDate, consumer);
+	}
+
+	@Override
+	public void series(String project, LocalDate startDate, LocalDate endDate, long[] seconds)
+	{
+		flush();
+		store.series(project, startDate, endDate, seconds);
+	}
+
+	@Override
+	public void storeInterval(Interval interval)
+	{
+		store.storeInterval(interval);
+	}
+
+	@Override
+	public List<Interval> loadIntervals(LocalDate startDate, LocalDate endDate)
+	{
+		return store.loadIntervals(startDate, endDate);
+	}
+
+	@Override
+	public void streamIntervals(LocalDate startDate, LocalDate endDate, Consumer<Interval> consumer)
+	{
+		store.streamIntervals(startDate, endDate, consumer);
+	}
+
+}
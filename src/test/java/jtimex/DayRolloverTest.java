@@ -0,0 +1,102 @@
+package jtimex;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jtimex.ProjectTest.ManualClock;
+import jtimex.store.DayRecord;
+import jtimex.store.JournalStore;
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DayRolloverTest {
+
+	final static String PATH = "target/testrollover/timex.journal";
+
+	private JournalStore store;
+
+	@Before
+	public void setup()
+	{
+		new File(PATH).delete();
+		store = new JournalStore(PATH);
+		store.init();
+	}
+
+	@After
+	public void teardown()
+	{
+		store.shutdown();
+	}
+
+	@Test
+	public void testRollOverShownDay()
+	{
+		ManualClock clock = new ManualClock("2015-03-02T22:00:00");
+		Project a = new Project("A", clock);
+		Project b = new Project("B", clock);
+		List<Project> projects = Arrays.asList(a, b);
+		b.setCurrentDuration(Duration.ofMinutes(20));
+		a.activate();
+		clock.advance(Duration.ofHours(2).plusMinutes(5));
+
+		LocalDate day = LocalDate.parse("2015-03-03");
+		AtomicReference<LocalDate> started = new AtomicReference<>();
+		DayRollover rollover = new DayRollover(clock, store,
+				shown -> shown.equals(day.minusDays(1)) ? projects : null,
+				() -> a, started::set, Runnable::run);
+		rollover.rollOver(day);
+		TestCase.assertEquals(day, started.get());
+
+		DayRecord previous = store.loadDay(day.minusDays(1));
+		TestCase.assertNull(previous.getActiveName());
+		TestCase.assertEquals(Duration.ofHours(2), previous.getDurations().get("A"));
+		TestCase.assertEquals(Duration.ofMinutes(20), previous.getDurations().get("B"));
+
+		DayRecord next = store.loadDay(day);
+		TestCase.assertEquals("A", next.getActiveName());
+		TestCase.assertEquals(LocalTime.MIDNIGHT, next.getStartTime());
+		// the running time is counted from the start time only
+		TestCase.assertEquals(Duration.ZERO, next.getDurations().get("A"));
+		TestCase.assertEquals(Duration.ZERO, next.getDurations().get("B"));
+		TestCase.assertEquals("00:00:00", b.getDuration());
+		TestCase.assertEquals("00:05:00", a.getDuration());
+
+		// reloading the new day resumes A with five minutes, not ten
+		List<Project> reloaded = new ArrayList<>(Arrays.asList(new Project("A", clock), new Project("B", clock)));
+		Project active = store.loadTimexData(day, reloaded, true);
+		TestCase.assertEquals("A", active.getName());
+		TestCase.assertEquals(Duration.ofMinutes(5), active.getCurrentDuration());
+	}
+
+	@Test
+	public void testRollOverStoredDay()
+	{
+		LocalDate day = LocalDate.parse("2015-03-03");
+		store.storeDay(new DayRecord(day.minusDays(1), Collections.singletonMap("A", Duration.ofHours(1)),
+				"A", LocalTime.parse("22:00")));
+
+		DayRollover rollover = new DayRollover(TimeSource.SYSTEM, store,
+				shown -> null, () -> null, shown -> {}, Runnable::run);
+		rollover.rollOver(day);
+
+		DayRecord previous = store.loadDay(day.minusDays(1));
+		TestCase.assertNull(previous.getActiveName());
+		// stored up to the start, then running until midnight
+		TestCase.assertEquals(Duration.ofHours(3), previous.getDurations().get("A"));
+		DayRecord next = store.loadDay(day);
+		TestCase.assertEquals("A", next.getActiveName());
+		TestCase.assertEquals(LocalTime.MIDNIGHT, next.getStartTime());
+	}
+
+}
@@ -0,0 +1,68 @@
+package jtimex;
+
+import java.time.Duration;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class DurationCodecTest {
+
+	@Test
+	public void testFormat()
+	{
+		TestCase.assertEquals("00:00:00", DurationCodec.format(Duration.ZERO));
+		TestCase.assertEquals("09:59:59", DurationCodec.format(Duration.ofSeconds(10 * 3600 - 1)));
+		TestCase.assertEquals("01:02:03", DurationCodec.format(Duration.ofSeconds(3723).plusMillis(999)));
+		TestCase.assertEquals("-00:00:01", DurationCodec.format(Duration.ofSeconds(-1)));
+
+		StringBuilder builder = new StringBuilder();
+		DurationCodec.format(123 * 3600 + 4 * 60 + 56, builder);
+		TestCase.assertEquals("123:04:56", builder.toString());
+
+		char[] chars = new char[32];
+		for (long seconds : new long[] { 0, 59, 3600, 99 * 3600 + 3599, 100 * 3600, 12345 * 3600 + 61, -7 })
+		{
+			int length = DurationCodec.format(seconds, chars, 3);
+			TestCase.assertEquals(DurationCodec.format(Duration.ofSeconds(seconds)), new String(chars, 3, length));
+		}
+	}
+
+	@Test
+	public void testParseClock()
+	{
+		TestCase.assertEquals(0, DurationCodec.parseClock("00:00:00"));
+		TestCase.assertEquals(3723, DurationCodec.parseClock("01:02:03"));
+		TestCase.assertEquals(150 * 3600 + 59, DurationCodec.parseClock("150:00:59"));
+		for (String invalid : new String[] { "", "1:02:03", "01:2:03", "01:02:60", "01:60:00", "ab:cd:ef", "01-02-03" })
+		{
+			try
+			{
+				DurationCodec.parseClock(invalid);
+				TestCase.fail("Expected '" + invalid + "' to be rejected");
+			}
+			catch (IllegalArgumentException e)
+			{
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testParseIso()
+	{
+		for (Duration duration : new Duration[] {
+				Duration.ZERO,
+				Duration.ofSeconds(59),
+				Duration.ofHours(2),
+				Duration.ofHours(150).plusMinutes(3).plusSeconds(4),
+				Duration.ofSeconds(61).plusMillis(250),
+				Duration.ofSeconds(1, 1),
+				Duration.ofDays(2),
+				Duration.ofSeconds(-90) })
+		{
+			TestCase.assertEquals(duration, DurationCodec.parseIso(duration.toString()));
+		}
+		TestCase.assertEquals(Duration.ofDays(1).plusHours(1), DurationCodec.parseIso("P1DT1H"));
+	}
+}
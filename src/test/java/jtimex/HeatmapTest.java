@@ -0,0 +1,43 @@
+package jtimex;
+
+import java.time.LocalDateTime;
+
+import jtimex.store.Interval;
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class HeatmapTest {
+
+	@Test
+	public void testAccumulate()
+	{
+		Heatmap heatmap = new Heatmap();
+		// 2015-03-02 was a Monday
+		heatmap.accept(new Interval("A", LocalDateTime.parse("2015-03-02T09:30:00"), LocalDateTime.parse("2015-03-02T11:15:00")));
+		heatmap.accept(new Interval("A", LocalDateTime.parse("2015-03-08T23:30:00"), LocalDateTime.parse("2015-03-09T00:30:00")));
+		heatmap.accept(new Interval("B", LocalDateTime.parse("2015-03-04T14:00:00"), LocalDateTime.parse("2015-03-04T14:20:00")));
+		// a week later, same hour
+		heatmap.accept(new Interval("A", LocalDateTime.parse("2015-03-09T09:00:00"), LocalDateTime.parse("2015-03-09T10:00:00")));
+
+		long[][] first = heatmap.getProjects().get("A");
+		TestCase.assertEquals(1800 + 3600, first[0][9]);
+		TestCase.assertEquals(3600, first[0][10]);
+		TestCase.assertEquals(900, first[0][11]);
+		TestCase.assertEquals(1800, first[6][23]);
+		TestCase.assertEquals(1800, first[0][0]);
+		TestCase.assertEquals(1200, heatmap.getProjects().get("B")[2][14]);
+		TestCase.assertEquals(5400, heatmap.getMax());
+
+		long total = 0;
+		for (long[] hours : first)
+		{
+			for (long seconds : hours)
+			{
+				total += seconds;
+			}
+		}
+		TestCase.assertEquals(6300 + 3600 + 3600, total);
+	}
+
+}
@@ -0,0 +1,247 @@
+package jtimex;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jtimex.store.Interval;
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class ProjectTest {
+
+	/**
+	 * A clock that only moves when told to. The wall clock can also be
+	 * set on its own, like a clock adjustment.
+	 */
+	static class ManualClock implements TimeSource
+	{
+		long nanos = 1000;
+		LocalDateTime now;
+
+		ManualClock(String now)
+		{
+			this.now = LocalDateTime.parse(now);
+		}
+
+		void advance(Duration duration)
+		{
+			nanos += duration.toNanos();
+			now = now.plus(duration);
+		}
+
+		@Override
+		public long nanoTime()
+		{
+			return nanos;
+		}
+
+		@Override
+		public LocalDateTime now()
+		{
+			return now;
+		}
+	}
+
+	@Test
+	public void testTiming()
+	{
+		ManualClock clock = new ManualClock("2015-03-02T10:00:00");
+		Project project = new Project("A", clock);
+		project.setCurrentDuration(Duration.ofMinutes(10));
+		TestCase.assertFalse(project.isActive());
+		TestCase.assertEquals("00:10:00", project.getDuration());
+
+		project.setStartTime(LocalTime.parse("09:55"));
+		Project.Timing timing = project.getTiming();
+		TestCase.assertTrue(timing.isActive());
+		TestCase.assertEquals(Duration.ofMinutes(15), timing.currentDuration(clock.nanoTime()));
+
+		clock.advance(Duration.ofSeconds(30));
+		project.deactivate();
+		TestCase.assertFalse(project.isActive());
+		TestCase.assertEquals(Duration.ofMinutes(15).plusSeconds(30), project.getCurrentDuration());
+		clock.advance(Duration.ofSeconds(30));
+		TestCase.assertEquals(Duration.ofMinutes(15).plusSeconds(30), project.getCurrentDuration());
+	}
+
+	@Test
+	public void testEditDuration()
+	{
+		Project project = new Project("A");
+		project.editDuration("120:30:05");
+		TestCase.assertEquals(Duration.ofSeconds(120 * 3600 + 30 * 60 + 5), project.getCurrentDuration());
+		TestCase.assertEquals("120:30:05", project.getDuration());
+		try
+		{
+			project.editDuration("1:30");
+			TestCase.fail("Expected invalid input to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testCurrentSeconds()
+	{
+		Project.Timing timing = new Project("A").getTiming();
+		TestCase.assertEquals(0, timing.currentSeconds(System.nanoTime()));
+		ManualClock clock = new ManualClock("2015-03-02T10:00:00");
+		Project project = new Project("B", clock);
+		project.setCurrentDuration(Duration.ofSeconds(90).plusMillis(600));
+		project.activate();
+		clock.advance(Duration.ofSeconds(60).plusMillis(500));
+		TestCase.assertEquals(90 + 61, project.getTiming().currentSeconds(clock.nanoTime()));
+		TestCase.assertEquals(project.getTiming().currentDuration(clock.nanoTime()).getSeconds(),
+				project.getTiming().currentSeconds(clock.nanoTime()));
+	}
+
+	@Test
+	public void testWallClockChange()
+	{
+		ManualClock clock = new ManualClock("2015-03-02T10:00:00");
+		Project project = new Project("A", clock);
+		project.activate();
+		TestCase.assertEquals(LocalTime.parse("10:00"), project.getStartTime());
+		clock.advance(Duration.ofMinutes(30));
+		// the wall clock is set back an hour, the running time is unaffected
+		clock.now = clock.now.minusHours(1);
+		TestCase.assertEquals(Duration.ofMinutes(30), project.getCurrentDuration());
+		clock.advance(Duration.ofMinutes(10));
+		Interval interval = project.deactivate();
+		TestCase.assertEquals(Duration.ofMinutes(40), project.getCurrentDuration());
+		// the interval ends at the wall clock time and lasts as long as measured
+		TestCase.assertEquals(LocalDateTime.parse("2015-03-02T09:40:00"), interval.getEnd());
+		TestCase.assertEquals(Duration.ofMinutes(40), interval.getDuration());
+		TestCase.assertNull(project.deactivate());
+
+		// resuming a stored start time measures from the wall clock once
+		Project resumed = new Project("B", "00:00:00", LocalTime.parse("08:50"), clock);
+		TestCase.assertEquals(Duration.ofMinutes(50), resumed.getCurrentDuration());
+		clock.advance(Duration.ofMinutes(5));
+		TestCase.assertEquals(Duration.ofMinutes(55), resumed.getCurrentDuration());
+	}
+
+	@Test
+	public void testRollOver()
+	{
+		ManualClock clock = new ManualClock("2015-03-02T23:00:00");
+		Project project = new Project("A", clock);
+		project.setCurrentDuration(Duration.ofHours(2));
+		project.activate();
+		clock.advance(Duration.ofMinutes(90));
+		// past midnight the running time keeps counting instead of going negative
+		TestCase.assertEquals(Duration.ofMinutes(210), project.getCurrentDuration());
+
+		// the rollover runs late, the split is still at midnight
+		Interval interval = project.intervalTo(LocalDateTime.parse("2015-03-03T00:00:00"));
+		TestCase.assertEquals(LocalDateTime.parse("2015-03-02T23:00:00"), interval.getStart());
+		TestCase.assertEquals(Duration.ofHours(1), interval.getDuration());
+		Duration closed = project.rollOver(LocalDateTime.parse("2015-03-03T00:00:00"));
+		TestCase.assertEquals(Duration.ofHours(3), closed);
+		TestCase.assertTrue(project.isActive());
+		TestCase.assertEquals(LocalTime.MIDNIGHT, project.getStartTime());
+		TestCase.assertEquals(Duration.ofMinutes(30), project.getCurrentDuration());
+
+		// a project that is not running starts the new day with nothing
+		Project stopped = new Project("B", clock);
+		stopped.setCurrentDuration(Duration.ofMinutes(45));
+		TestCase.assertEquals(Duration.ofMinutes(45), stopped.rollOver(LocalDateTime.parse("2015-03-03T00:00:00")));
+		TestCase.assertFalse(stopped.isActive());
+		TestCase.assertEquals(Duration.ZERO, stopped.getCurrentDuration());
+
+		// activated after midnight, nothing of the session is closed
+		Project late = new Project("C", clock);
+		late.setCurrentDuration(Duration.ofMinutes(5));
+		late.activate();
+		clock.advance(Duration.ofMinutes(1));
+		TestCase.assertEquals(Duration.ofMinutes(5), late.rollOver(LocalDateTime.parse("2015-03-03T00:00:00")));
+		TestCase.assertEquals(Duration.ofMinutes(1), late.getCurrentDuration());
+	}
+
+	/**
+	 * Threads activate and deactivate the same project while others read
+	 * and tick it. Readers must never see a negative duration or one longer
+	 * than the time that has passed, and in total no time may be counted
+	 * twice.
+	 */
+	@Test
+	public void testConcurrentActivation() throws InterruptedException
+	{
+		Project project = new Project("Stress");
+		int writers = 4;
+		int readers = 4;
+		int iterations = 20000;
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<String> failure = new AtomicReference<>();
+		AtomicLong begin = new AtomicLong(System.nanoTime());
+		List<Thread> threads = new ArrayList<>();
+		for (int i=0; i<writers; i++)
+		{
+			threads.add(new Thread(() -> {
+				await(start);
+				for (int n=0; n<iterations; n++)
+				{
+					project.activate();
+					project.deactivate();
+				}
+			}));
+		}
+		for (int i=0; i<readers; i++)
+		{
+			threads.add(new Thread(() -> {
+				await(start);
+				while (!done.get())
+				{
+					Duration current = project.getCurrentDuration();
+					Duration elapsed = Duration.ofNanos(System.nanoTime() - begin.get());
+					if (current.isNegative() || current.compareTo(elapsed.plusMillis(50)) > 0)
+					{
+						failure.set("Read " + current + " after " + elapsed);
+					}
+					project.tick();
+				}
+			}));
+		}
+		begin.set(System.nanoTime());
+		threads.forEach(Thread::start);
+		start.countDown();
+		for (int i=0; i<writers; i++)
+		{
+			threads.get(i).join();
+		}
+		done.set(true);
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		Duration elapsed = Duration.ofNanos(System.nanoTime() - begin.get());
+
+		TestCase.assertNull(failure.get(), failure.get());
+		TestCase.assertFalse(project.isActive());
+		TestCase.assertTrue(project.getCurrentDuration() + " > " + elapsed,
+				project.getCurrentDuration().compareTo(elapsed.plusMillis(50)) <= 0);
+	}
+
+	private static void await(CountDownLatch latch)
+	{
+		try
+		{
+			latch.await();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
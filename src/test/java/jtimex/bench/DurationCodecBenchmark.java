@@ -0,0 +1,102 @@
+package jtimex.bench;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jtimex.DurationCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares DurationCodec with the conversions it replaced: String.format
+ * for display, a regex compiled per edit for parsing, and Duration.parse
+ * for the ISO strings of older stores. Run with -prof gc to see the
+ * allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DurationCodecBenchmark
+{
+	private final Duration duration = Duration.ofHours(123).plusMinutes(4).plusSeconds(56);
+	private final long seconds = duration.getSeconds();
+	private final String clock = "123:04:56";
+	private final String iso = duration.toString();
+	private final StringBuilder builder = new StringBuilder(16);
+	private final char[] chars = new char[16];
+
+	@Benchmark
+	public String formatStringFormat()
+	{
+		long hours = duration.toHours();
+		long minutes = duration.minusHours(hours).toMinutes();
+		long secs = duration.minusHours(hours).minusMinutes(minutes).getSeconds();
+		return String.format("%02d:%02d:%02d", hours, minutes, secs);
+	}
+
+	@Benchmark
+	public String formatCodec()
+	{
+		return DurationCodec.format(duration);
+	}
+
+	@Benchmark
+	public int formatCodecBuilder()
+	{
+		builder.setLength(0);
+		DurationCodec.format(seconds, builder);
+		return builder.length();
+	}
+
+	@Benchmark
+	public int formatCodecChars()
+	{
+		return DurationCodec.format(seconds, chars, 0);
+	}
+
+	@Benchmark
+	public Duration parseClockRegex()
+	{
+		Pattern p = Pattern.compile("(\\d+):(\\d\\d):(\\d\\d)");
+		Matcher m = p.matcher(clock);
+		if (!m.matches())
+		{
+			throw new IllegalArgumentException("Invalid time");
+		}
+		return Duration.ofSeconds(Integer.parseInt(m.group(3)))
+				.plus(Duration.ofMinutes(Integer.parseInt(m.group(2))))
+				.plus(Duration.ofHours(Integer.parseInt(m.group(1))));
+	}
+
+	@Benchmark
+	public long parseClockCodec()
+	{
+		return DurationCodec.parseClock(clock);
+	}
+
+	@Benchmark
+	public Duration parseIsoDuration()
+	{
+		return Duration.parse(iso);
+	}
+
+	@Benchmark
+	public Duration parseIsoCodec()
+	{
+		return DurationCodec.parseIso(iso);
+	}
+
+}
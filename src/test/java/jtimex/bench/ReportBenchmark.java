@@ -0,0 +1,132 @@
+package jtimex.bench;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jtimex.Project;
+import jtimex.store.DayRecord;
+import jtimex.store.Neo4JStore;
+import jtimex.store.ParallelReport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the serial Neo4JStore report with the fork/join report as the
+ * range and the number of projects grow. The ranges start mid-month so
+ * that the serial report has days to scan at both ends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReportBenchmark
+{
+	@Param({ "90", "365", "1095" })
+	public int days;
+
+	@Param({ "10", "100" })
+	public int projects;
+
+	@Param({ "4" })
+	public int parallelism;
+
+	@Param({ "31" })
+	public int chunkDays;
+
+	private Neo4JStore store;
+	private ParallelReport pool;
+	private LocalDate startDate;
+	private LocalDate endDate;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		String dbPath = "target/bench-report-" + days + "-" + projects;
+		deleteRecursively(new File(dbPath));
+		store = new Neo4JStore(dbPath);
+		store.init();
+		List<String> names = new ArrayList<>();
+		for (int i=0; i<projects; i++)
+		{
+			Project project = new Project("Project" + i);
+			store.add(project);
+			names.add(project.getName());
+		}
+		startDate = LocalDate.parse("2010-01-15");
+		endDate = startDate.plusDays(days - 1);
+		List<DayRecord> records = new ArrayList<>();
+		for (LocalDate date = startDate; !date.isAfter(endDate); date = date.plusDays(1))
+		{
+			Map<String, Duration> durations = new LinkedHashMap<>();
+			for (int i=0; i<names.size(); i++)
+			{
+				durations.put(names.get(i), Duration.ofSeconds(60 * (i + date.getDayOfMonth())));
+			}
+			records.add(new DayRecord(date, durations, null, null));
+			if (records.size() == 31)
+			{
+				store.storeDays(records);
+				records.clear();
+			}
+		}
+		store.storeDays(records);
+		pool = new ParallelReport(parallelism, chunkDays);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		pool.shutdown();
+		store.shutdown();
+	}
+
+	@Benchmark
+	public Map<String, Duration> serialReport()
+	{
+		return store.report(startDate, endDate);
+	}
+
+	/**
+	 * The chunks are reported serially by the store, each in its own
+	 * read transaction.
+	 */
+	@Benchmark
+	public Map<String, Duration> parallelReport()
+	{
+		return pool.report(store, startDate, endDate);
+	}
+
+	static void deleteRecursively(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+
+}
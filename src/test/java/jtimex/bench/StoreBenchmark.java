@@ -0,0 +1,179 @@
+package jtimex.bench;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jtimex.Project;
+import jtimex.store.CachingStore;
+import jtimex.store.ColumnarStore;
+import jtimex.store.DataStore;
+import jtimex.store.DayRecord;
+import jtimex.store.JournalStore;
+import jtimex.store.Neo4JStore;
+import jtimex.store.WriteBehindStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The operations the tracker calls on every store: saving and loading
+ * the day shown, reading the project list and reporting over the whole
+ * history. Each store is filled with the given years of history, in
+ * which only a few of the projects are worked on each day, as they would
+ * be by one person. The "cached" stack puts the CachingStore and
+ * WriteBehindStore that the UI uses in front of the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StoreBenchmark
+{
+	// projects worked on per day
+	private static final int DAILY_PROJECTS = 8;
+
+	@Param({ "neo4j", "journal", "columnar" })
+	public String type;
+
+	@Param({ "1", "10" })
+	public int years;
+
+	@Param({ "10", "5000" })
+	public int projects;
+
+	@Param({ "backend", "cached" })
+	public String stack;
+
+	private DataStore store;
+	private WriteBehindStore writeBehind;
+	private long tick;
+	private String path;
+	private List<Project> projectList;
+	private LocalDate startDate;
+	private LocalDate endDate;
+	private LocalDate midDate;
+
+	private static DataStore createStore(String type, String path)
+	{
+		switch (type)
+		{
+		case "neo4j":
+			return new Neo4JStore(path);
+		case "journal":
+			return new JournalStore(path);
+		case "columnar":
+			return new ColumnarStore(path);
+		default:
+			throw new IllegalArgumentException("Unknown store: " + type);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		path = "target/bench-store-" + type + "-" + years + "-" + projects + "-" + stack;
+		ReportBenchmark.deleteRecursively(new File(path));
+		store = createStore(type, path);
+		if (stack.equals("cached"))
+		{
+			writeBehind = new WriteBehindStore(store);
+			store = new CachingStore(writeBehind);
+		}
+		store.init();
+		List<String> names = new ArrayList<>();
+		for (int i=0; i<projects; i++)
+		{
+			Project project = new Project("Project" + i);
+			store.add(project);
+			names.add(project.getName());
+		}
+		endDate = LocalDate.parse("2015-12-31");
+		startDate = endDate.minusYears(years).plusDays(1);
+		midDate = startDate.plusDays(ChronoUnit.DAYS.between(startDate, endDate) / 2);
+		List<DayRecord> records = new ArrayList<>();
+		int next = 0;
+		for (LocalDate date = startDate; !date.isAfter(endDate); date = date.plusDays(1))
+		{
+			Map<String, Duration> durations = new LinkedHashMap<>();
+			for (int i=0; i<Math.min(DAILY_PROJECTS, projects); i++)
+			{
+				durations.put(names.get(next), Duration.ofMinutes(15 * (i + 1)));
+				next = (next + 1) % projects;
+			}
+			records.add(new DayRecord(date, durations, null, null));
+			if (records.size() == 31)
+			{
+				store.storeDays(records);
+				records.clear();
+			}
+		}
+		store.storeDays(records);
+		if (writeBehind != null)
+		{
+			writeBehind.flush();
+		}
+		projectList = store.readProjects();
+		for (int i=0; i<Math.min(DAILY_PROJECTS, projects); i++)
+		{
+			projectList.get(i).setCurrentDuration(Duration.ofMinutes(15 * (i + 1)));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		store.shutdown();
+		ReportBenchmark.deleteRecursively(new File(path));
+	}
+
+	/**
+	 * Saves the last day again with one duration changed, as the tracker
+	 * does whenever the active project changes. The stores skip unchanged
+	 * values, so every call has something to write.
+	 */
+	@Benchmark
+	public void storeTimexData()
+	{
+		projectList.get(0).setCurrentDuration(Duration.ofSeconds(++tick));
+		store.storeTimexData(endDate, projectList, null);
+	}
+
+	@Benchmark
+	public Project loadTimexData()
+	{
+		return store.loadTimexData(midDate, projectList, false);
+	}
+
+	@Benchmark
+	public List<Project> readProjects()
+	{
+		return store.readProjects();
+	}
+
+	@Benchmark
+	public Map<String, Duration> report()
+	{
+		return store.report(startDate, endDate);
+	}
+
+}
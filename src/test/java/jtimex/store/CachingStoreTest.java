@@ -0,0 +1,57 @@
+package jtimex.store;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jtimex.Project;
+import jtimex.store.WriteBehindStoreTest.RecordingStore;
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class CachingStoreTest {
+
+	@Test
+	public void testHitsMissesAndEviction()
+	{
+		CachingStore store = new CachingStore(new RecordingStore(), 7);
+		store.init();
+		LocalDate today = LocalDate.parse("2014-01-15");
+		// page back through a week and forward again
+		for (int i=0; i<7; i++)
+		{
+			store.loadTimexData(today.minusDays(i), new ArrayList<>(), false);
+		}
+		for (int i=6; i>=0; i--)
+		{
+			store.loadTimexData(today.minusDays(i), new ArrayList<>(), false);
+		}
+		TestCase.assertEquals(7, store.getMisses());
+		TestCase.assertEquals(7, store.getHits());
+
+		// an eighth day evicts the least recently used one
+		store.loadDay(today.plusDays(1));
+		store.loadDay(today.minusDays(6));
+		TestCase.assertEquals(9, store.getMisses());
+	}
+
+	@Test
+	public void testStoreReplacesCachedDay()
+	{
+		CachingStore store = new CachingStore(new RecordingStore(), 7);
+		store.init();
+		LocalDate date = LocalDate.parse("2014-01-15");
+		List<Project> projects = Arrays.asList(new Project("A"));
+		projects.get(0).setCurrentDuration(Duration.ofMinutes(5));
+		store.storeTimexData(date, projects, null);
+		TestCase.assertEquals(Duration.ofMinutes(5), store.loadDay(date).getDurations().get("A"));
+
+		projects.get(0).setCurrentDuration(Duration.ofMinutes(6));
+		store.storeTimexData(date, projects, null);
+		TestCase.assertEquals(Duration.ofMinutes(6), store.loadDay(date).getDurations().get("A"));
+		TestCase.assertEquals(0, store.getMisses());
+	}
+}
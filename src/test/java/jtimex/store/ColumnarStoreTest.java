@@ -0,0 +1,133 @@
+package jtimex.store;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import jtimex.Project;
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColumnarStoreTest {
+
+	final static String DIR = "target/testcolumns";
+
+	@Before
+	public void setup()
+	{
+		Neo4JStoreTest.deleteRecursively(new File(DIR));
+	}
+
+	@Test
+	public void testStoreAcrossYearsAndGrow()
+	{
+		ColumnarStore store = new ColumnarStore(DIR);
+		store.init();
+		List<Project> projects = new ArrayList<>();
+		for (int i=0; i<100; i++)
+		{
+			Project p = new Project("P" + i);
+			store.add(p);
+			p.setCurrentDuration(Duration.ofSeconds(i));
+			projects.add(p);
+		}
+		LocalDate startDate = LocalDate.parse("2013-12-20");
+		LocalDate endDate = LocalDate.parse("2014-01-10");
+		for (LocalDate date = startDate; !date.isAfter(endDate); date = date.plusDays(1))
+		{
+			store.storeTimexData(date, projects, null);
+		}
+		store.shutdown();
+
+		ColumnarStore reopened = new ColumnarStore(DIR);
+		reopened.init();
+		TestCase.assertEquals(100, reopened.readProjects().size());
+		Map<String, Duration> report = reopened.report(startDate, endDate);
+		TestCase.assertEquals(100, report.size());
+		TestCase.assertEquals(Duration.ofSeconds(99 * 22), report.get("P99"));
+		TestCase.assertEquals(Duration.ZERO, report.get("P0"));
+		TestCase.assertEquals(22, reopened.loadRange(startDate.minusDays(5), endDate.plusDays(5)).size());
+		TestCase.assertEquals(Duration.ofSeconds(42),
+				reopened.loadDay(LocalDate.parse("2014-01-01")).getDurations().get("P42"));
+		long[] series = reopened.series("P7", startDate.minusDays(1), endDate.plusDays(1));
+		TestCase.assertEquals(24, series.length);
+		TestCase.assertEquals(0, series[0]);
+		TestCase.assertEquals(7, series[1]);
+		TestCase.assertEquals(7, series[22]);
+		TestCase.assertEquals(0, series[23]);
+		reopened.shutdown();
+	}
+
+	@Test
+	public void testGrowWithStoredYears()
+	{
+		ColumnarStore store = new ColumnarStore(DIR);
+		store.init();
+		LocalDate first = LocalDate.parse("2013-06-01");
+		LocalDate second = LocalDate.parse("2014-06-01");
+		store.storeDay(new DayRecord(first, Collections.singletonMap("A", Duration.ofMinutes(5)), "A", null));
+		store.storeDay(new DayRecord(second, Collections.singletonMap("A", Duration.ofMinutes(10)), null, null));
+		// past the initial capacity of 64 projects
+		for (int i=0; i<70; i++)
+		{
+			store.add(new Project("P" + i));
+		}
+		store.storeDay(new DayRecord(second, Collections.singletonMap("P69", Duration.ofMinutes(15)), null, null));
+		DayRecord record = store.loadDay(first);
+		TestCase.assertEquals(Duration.ofMinutes(5), record.getDurations().get("A"));
+		TestCase.assertEquals("A", record.getActiveName());
+		TestCase.assertNull(record.getStartTime());
+		store.shutdown();
+
+		ColumnarStore reopened = new ColumnarStore(DIR);
+		reopened.init();
+		Map<String, Duration> report = reopened.report(first, second);
+		TestCase.assertEquals(Duration.ofMinutes(5), report.get("A"));
+		TestCase.assertEquals(Duration.ofMinutes(15), report.get("P69"));
+		reopened.shutdown();
+	}
+
+	@Test
+	public void testConvertFromNeo4J()
+	{
+		String dbPath = "target/testdb-convert";
+		Neo4JStoreTest.deleteRecursively(new File(dbPath));
+		Neo4JStore source = new Neo4JStore(dbPath);
+		source.init();
+		List<Project> projects = new ArrayList<>();
+		for (String name : new String[] { "A", "B", "C" })
+		{
+			Project p = new Project(name);
+			source.add(p);
+			p.setCurrentDuration(Duration.ofMinutes(name.charAt(0)));
+			projects.add(p);
+		}
+		LocalDate startDate = LocalDate.parse("2014-12-01");
+		LocalDate endDate = LocalDate.parse("2015-01-31");
+		for (LocalDate date = startDate; !date.isAfter(endDate); date = date.plusDays(1))
+		{
+			source.storeTimexData(date, projects, null);
+		}
+
+		ColumnarStore target = new ColumnarStore(DIR);
+		target.init();
+		try
+		{
+			int days = StoreConverter.convert(source, target, LocalDate.parse("2014-01-01"), LocalDate.parse("2015-12-31"));
+			TestCase.assertEquals(62, days);
+			TestCase.assertEquals(source.report(startDate, endDate), target.report(startDate, endDate));
+			TestCase.assertEquals(3, target.readProjects().size());
+		}
+		finally
+		{
+			target.shutdown();
+			source.shutdown();
+		}
+	}
+}
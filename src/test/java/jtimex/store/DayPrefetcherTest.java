@@ -0,0 +1,62 @@
+package jtimex.store;
+
+import java.time.LocalDate;
+
+import jtimex.store.WriteBehindStoreTest.RecordingStore;
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class DayPrefetcherTest {
+
+	@Test
+	public void testPrefetchedDaysAreCounted() throws Exception
+	{
+		CachingStore store = new CachingStore(new RecordingStore(), 31);
+		DayPrefetcher prefetcher = new DayPrefetcher(store, 2, false);
+		LocalDate date = LocalDate.parse("2014-01-15");
+		store.loadDay(date);
+		prefetcher.navigated(date);
+		waitForCache(store, date.minusDays(2));
+
+		// step back twice, both days were prefetched
+		store.loadDay(date.minusDays(1));
+		prefetcher.navigated(date.minusDays(1));
+		store.loadDay(date.minusDays(2));
+		TestCase.assertEquals(2, store.getPrefetchHits());
+		TestCase.assertEquals(1, store.getMisses());
+		prefetcher.shutdown();
+	}
+
+	@Test
+	public void testNavigatedAfterShutdown()
+	{
+		CachingStore store = new CachingStore(new RecordingStore(), 31);
+		DayPrefetcher prefetcher = new DayPrefetcher(store, 2, false);
+		prefetcher.shutdown();
+		// e.g. the date buttons while quitting
+		prefetcher.navigated(LocalDate.parse("2014-01-15"));
+		TestCase.assertFalse(store.isCached(LocalDate.parse("2014-01-14")));
+	}
+
+	@Test
+	public void testNeighbours()
+	{
+		DayPrefetcher prefetcher = new DayPrefetcher(new CachingStore(new RecordingStore()), 1, true);
+		// a Wednesday: one day either side, then the rest of the week
+		LocalDate date = LocalDate.parse("2014-01-15");
+		TestCase.assertEquals(6, prefetcher.neighbours(date).size());
+		TestCase.assertEquals(date.minusDays(1), prefetcher.neighbours(date).get(0));
+		TestCase.assertTrue(prefetcher.neighbours(LocalDate.now()).stream()
+				.noneMatch(d -> d.isAfter(LocalDate.now())));
+		prefetcher.shutdown();
+	}
+
+	private static void waitForCache(CachingStore store, LocalDate date) throws InterruptedException
+	{
+		for (int i=0; i<100 && !store.isCached(date); i++)
+		{
+			Thread.sleep(10);
+		}
+	}
+}
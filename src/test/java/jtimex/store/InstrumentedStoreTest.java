@@ -0,0 +1,116 @@
+package jtimex.store;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jtimex.Project;
+import jtimex.store.WriteBehindStoreTest.RecordingStore;
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class InstrumentedStoreTest {
+
+	final static String PATH = "target/testinstrumented/timex.journal";
+
+	@Test
+	public void testStatistics() throws Exception
+	{
+		RecordingStore recording = new RecordingStore();
+		InstrumentedStore store = new InstrumentedStore(recording, 0);
+		store.init();
+
+		List<Project> projects = Arrays.asList(new Project("A"), new Project("B"), new Project("C"));
+		projects.get(0).setCurrentDuration(Duration.ofMinutes(5));
+		LocalDate date = LocalDate.parse("2015-03-02");
+		store.storeTimexData(date, projects, null);
+		store.storeTimexData(date.plusDays(1), projects, null);
+		TestCase.assertEquals(3, store.report(date, date.plusDays(1)).size());
+		store.readProjects();
+
+		OperationStats stats = store.getStats("storeTimexData");
+		TestCase.assertEquals(2, stats.getCount());
+		TestCase.assertTrue(stats.getP50Micros() <= stats.getP99Micros());
+		TestCase.assertTrue(stats.getMaxMicros() <= stats.getP99Micros());
+		TestCase.assertEquals(1, store.getStats("report").getCount());
+		TestCase.assertEquals(0, store.getStats("loadDay").getCount());
+
+		// failures are counted as errors
+		try
+		{
+			store.storeDay(null);
+			TestCase.fail("Expected the null record to be rejected");
+		}
+		catch (NullPointerException e)
+		{
+			// expected
+		}
+		TestCase.assertEquals(1, store.getStats("storeDay").getErrors());
+
+		// the statistics are readable over JMX until shutdown
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("jtimex:type=DataStore,operation=storeTimexData");
+		TestCase.assertEquals(2L, server.getAttribute(name, "Count"));
+
+		// a summary lists only the operations called since the last one
+		String summary = store.summary();
+		TestCase.assertTrue(summary, summary.contains("storeTimexData: 2 calls"));
+		TestCase.assertTrue(summary, summary.contains("readProjects: 1 calls"));
+		store.readProjects();
+		TestCase.assertEquals(1, store.summary().split("\n").length);
+
+		store.shutdown();
+		TestCase.assertTrue(recording.shutdown);
+		TestCase.assertFalse(server.isRegistered(name));
+	}
+
+	@Test
+	public void testBackendCounts() throws Exception
+	{
+		new File(PATH).delete();
+		InstrumentedStore backend = new InstrumentedStore(new JournalStore(PATH), "backend", 0);
+		InstrumentedStore store = new InstrumentedStore(new WriteBehindStore(backend, 60000, 32), 0);
+		store.init();
+
+		List<Project> projects = Arrays.asList(new Project("A"), new Project("B"), new Project("C"));
+		projects.get(0).setCurrentDuration(Duration.ofMinutes(5));
+		LocalDate date = LocalDate.parse("2015-03-02");
+		store.storeTimexData(date, projects, null);
+		store.storeTimexData(date.plusDays(1), projects, null);
+		// only queued so far
+		TestCase.assertEquals(0, store.getStats("storeTimexData").getPropertiesWritten());
+		TestCase.assertEquals(0, backend.getStats("storeDays").getCount());
+
+		// the report flushes the queue to the backend in one batch first
+		TestCase.assertEquals(3, store.report(date, date.plusDays(1)).size());
+		OperationStats stats = backend.getStats("storeDays");
+		TestCase.assertEquals(1, stats.getCount());
+		TestCase.assertEquals(6, stats.getPropertiesWritten());
+		TestCase.assertEquals(6, stats.getMaxPropertiesWritten());
+		// two days of three projects, however few projects the result has
+		TestCase.assertEquals(6, backend.getStats("report").getRowsScanned());
+		TestCase.assertEquals(6, store.getStats("report").getRowsScanned());
+
+		// an unchanged day writes nothing
+		store.storeTimexData(date, projects, null);
+		store.report(date, date);
+		TestCase.assertEquals(6, backend.getStats("storeDays").getPropertiesWritten());
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("jtimex:type=DataStore,layer=backend,operation=storeDays");
+		TestCase.assertEquals(2L, server.getAttribute(name, "Count"));
+		TestCase.assertEquals(6L, server.getAttribute(name, "PropertiesWritten"));
+		TestCase.assertTrue(server.isRegistered(new ObjectName("jtimex:type=DataStore,operation=storeDays")));
+
+		store.shutdown();
+		TestCase.assertFalse(server.isRegistered(name));
+	}
+
+}
@@ -0,0 +1,196 @@
+package jtimex.store;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jtimex.Project;
+import jtimex.store.WriteBehindStoreTest.RecordingStore;
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IntervalStoreTest {
+
+	final static String PATH = "target/test.intervals";
+
+	@Before
+	public void setup()
+	{
+		new File(PATH).delete();
+	}
+
+	private static Interval interval(String project, String start, String end)
+	{
+		return new Interval(project, LocalDateTime.parse(start), LocalDateTime.parse(end));
+	}
+
+	@Test
+	public void testEncoding()
+	{
+		List<Interval> intervals = Arrays.asList(
+				interval("A", "2015-03-02T09:00:00", "2015-03-02T10:00:00"),
+				interval("B", "2015-03-02T10:00:00", "2015-03-02T12:30:15"),
+				// overlapping the previous interval
+				interval("A", "2015-03-02T12:00:00", "2015-03-02T13:00:00"));
+		Map<String, Long> logIds = new HashMap<>();
+		logIds.put("A", 3L);
+		logIds.put("B", 300L);
+		Map<Long, String> names = new HashMap<>();
+		logIds.forEach((name, logId) -> names.put(logId, name));
+		byte[] block = IntervalStore.encode(intervals, logIds);
+		// an hour of tracking costs a few bytes after the header
+		TestCase.assertTrue("block of " + block.length + " bytes", block.length <= 10 + 3 * 6);
+
+		List<Interval> decoded = new ArrayList<>();
+		IntervalStore.decode(ByteBuffer.wrap(block), 0, Long.MAX_VALUE, names, decoded::add);
+		TestCase.assertEquals(intervals, decoded);
+
+		// a block outside the range is skipped, a truncated one ends decoding
+		ByteBuffer buffer = ByteBuffer.allocate(block.length * 2 - 1);
+		buffer.put(block).put(block, 0, block.length - 1).flip();
+		decoded.clear();
+		IntervalStore.decode(buffer, 0, 1, names, decoded::add);
+		TestCase.assertTrue(decoded.isEmpty());
+		buffer.rewind();
+		IntervalStore.decode(buffer, 0, Long.MAX_VALUE, names, decoded::add);
+		TestCase.assertEquals(intervals, decoded);
+	}
+
+	@Test
+	public void testStoreAndReopen() throws Exception
+	{
+		RecordingStore recording = new RecordingStore();
+		IntervalStore store = new IntervalStore(recording, PATH, 60000);
+		store.init();
+		store.storeInterval(interval("A", "2015-03-02T09:00:00.250", "2015-03-02T10:15:30.900"));
+		// too short to be kept
+		store.storeInterval(interval("B", "2015-03-02T10:15:30.900", "2015-03-02T10:15:30.950"));
+		store.storeInterval(interval("B", "2015-03-02T23:30:00", "2015-03-03T00:00:00"));
+		// a new day starts a new block
+		store.storeInterval(interval("B", "2015-03-03T00:00:00", "2015-03-03T01:00:00"));
+		TestCase.assertEquals(3, store.loadIntervals(LocalDate.parse("2015-03-01"), LocalDate.parse("2015-03-31")).size());
+		store.flush();
+		long written = new File(PATH).length();
+		TestCase.assertTrue(written > 0);
+
+		// written intervals survive without a shutdown
+		IntervalStore reopened = new IntervalStore(recording, PATH);
+		List<Interval> intervals = reopened.loadIntervals(LocalDate.parse("2015-03-02"), LocalDate.parse("2015-03-02"));
+		TestCase.assertEquals(Arrays.asList(
+				interval("A", "2015-03-02T09:00:00", "2015-03-02T10:15:30"),
+				interval("B", "2015-03-02T23:30:00", "2015-03-03T00:00:00")), intervals);
+		TestCase.assertEquals(1, reopened.loadIntervals(LocalDate.parse("2015-03-03"), LocalDate.parse("2015-03-03")).size());
+
+		store.storeInterval(interval("A", "2015-03-03T09:00:00", "2015-03-03T10:00:00"));
+		store.shutdown();
+		TestCase.assertTrue(recording.shutdown);
+		TestCase.assertTrue(new File(PATH).length() > written);
+
+		// a block cut short by a crash is ignored, and cut off when the
+		// store is next opened
+		try ( RandomAccessFile file = new RandomAccessFile(PATH, "rw") )
+		{
+			file.setLength(file.length() - 1);
+		}
+		store = new IntervalStore(recording, PATH);
+		TestCase.assertEquals(3, store.loadIntervals(LocalDate.parse("2015-03-01"), LocalDate.parse("2015-03-31")).size());
+		store.init();
+		TestCase.assertEquals(written, new File(PATH).length());
+		store.storeInterval(interval("A", "2015-03-04T09:00:00", "2015-03-04T10:00:00"));
+		store.shutdown();
+		store = new IntervalStore(recording, PATH);
+		TestCase.assertEquals(4, store.loadIntervals(LocalDate.parse("2015-03-01"), LocalDate.parse("2015-03-31")).size());
+	}
+
+	@Test
+	public void testStoreWhileStreaming() throws Exception
+	{
+		IntervalStore store = new IntervalStore(new RecordingStore(), PATH, 60000);
+		store.init();
+		store.storeInterval(interval("A", "2015-03-02T09:00:00", "2015-03-02T10:00:00"));
+		store.flush();
+		store.storeInterval(interval("A", "2015-03-02T11:00:00", "2015-03-02T12:00:00"));
+		List<Interval> streamed = new ArrayList<>();
+		store.streamIntervals(LocalDate.parse("2015-03-02"), LocalDate.parse("2015-03-02"), interval -> {
+			streamed.add(interval);
+			// a project switch while a report is running is not held up
+			Thread thread = new Thread(() -> store.storeInterval(interval("B", "2015-03-02T13:00:00", "2015-03-02T14:00:00")));
+			thread.start();
+			try
+			{
+				thread.join(5000);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			TestCase.assertFalse(thread.isAlive());
+		});
+		TestCase.assertEquals(2, streamed.size());
+		TestCase.assertEquals(4, store.loadIntervals(LocalDate.parse("2015-03-02"), LocalDate.parse("2015-03-02")).size());
+		store.shutdown();
+	}
+
+	@Test
+	public void testNamesOutliveTheStore() throws Exception
+	{
+		IntervalStore store = new IntervalStore(new RecordingStore(), PATH, 60000);
+		store.init();
+		store.storeInterval(interval("A", "2015-03-02T09:00:00", "2015-03-02T10:00:00"));
+		store.flush();
+		// past and pending intervals follow a rename
+		store.storeInterval(interval("A", "2015-03-02T10:00:00", "2015-03-02T11:00:00"));
+		store.rename(new Project("A"), "Renamed");
+		// a new project with the old name gets a new log id
+		store.storeInterval(interval("A", "2015-03-02T11:00:00", "2015-03-02T12:00:00"));
+		store.shutdown();
+
+		IntervalStore reopened = new IntervalStore(new RecordingStore(), PATH);
+		TestCase.assertEquals(Arrays.asList(
+				interval("Renamed", "2015-03-02T09:00:00", "2015-03-02T10:00:00"),
+				interval("Renamed", "2015-03-02T10:00:00", "2015-03-02T11:00:00"),
+				interval("A", "2015-03-02T11:00:00", "2015-03-02T12:00:00")),
+				reopened.loadIntervals(LocalDate.parse("2015-03-02"), LocalDate.parse("2015-03-02")));
+	}
+
+	@Test
+	public void testDailyTotalsAndCheck() throws Exception
+	{
+		RecordingStore recording = new RecordingStore();
+		IntervalStore store = new IntervalStore(recording, PATH, 60000);
+		store.init();
+		store.storeInterval(interval("A", "2015-03-02T09:00:00", "2015-03-02T10:00:00"));
+		store.storeInterval(interval("B", "2015-03-02T23:00:00", "2015-03-03T01:00:00"));
+		store.storeInterval(interval("A", "2015-03-03T09:00:00", "2015-03-03T09:30:00"));
+
+		Map<LocalDate, Map<String, Duration>> totals = store.dailyTotals(LocalDate.parse("2015-03-03"), LocalDate.parse("2015-03-04"));
+		TestCase.assertEquals(1, totals.size());
+		// split at midnight
+		TestCase.assertEquals(Duration.ofHours(1), totals.get(LocalDate.parse("2015-03-03")).get("B"));
+		TestCase.assertEquals(Duration.ofMinutes(30), totals.get(LocalDate.parse("2015-03-03")).get("A"));
+
+		Map<String, Duration> day = new HashMap<>();
+		day.put("A", Duration.ofHours(1));
+		day.put("B", Duration.ofHours(1));
+		store.storeDay(new DayRecord(LocalDate.parse("2015-03-02"), day, null, null));
+		// the record of the second day was lost
+		TestCase.assertEquals(0, store.check(LocalDate.parse("2015-03-02"), LocalDate.parse("2015-03-02")));
+		TestCase.assertEquals(2, store.check(LocalDate.parse("2015-03-02"), LocalDate.parse("2015-03-03")));
+		store.storeDay(new DayRecord(LocalDate.parse("2015-03-03"),
+				Collections.singletonMap("A", Duration.ofMinutes(30)), null, null));
+		TestCase.assertEquals(1, store.check(LocalDate.parse("2015-03-02"), LocalDate.parse("2015-03-03")));
+		store.shutdown();
+	}
+
+}
@@ -0,0 +1,167 @@
+package jtimex.store;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import jtimex.Project;
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournalStoreTest {
+
+	final static String PATH = "target/testjournal/timex.journal";
+
+	@Before
+	public void setup()
+	{
+		new File(PATH).delete();
+	}
+
+	@Test
+	public void testStoreAndReopen()
+	{
+		JournalStore store = new JournalStore(PATH);
+		store.init();
+		List<Project> projects = Arrays.asList(
+				new Project("A"), new Project("B"),
+				new Project("A project with a name longer than a single name record"));
+		for (Project p : projects)
+		{
+			store.add(p);
+		}
+		LocalDate startDate = LocalDate.parse("2014-01-01");
+		LocalDate date = startDate;
+		for (int i=0; i<31; i++)
+		{
+			for (int j=0; j<projects.size(); j++)
+			{
+				projects.get(j).setCurrentDuration(Duration.ofMinutes(i * j));
+			}
+			store.storeTimexData(date, projects, null);
+			date = date.plusDays(1);
+		}
+		DayRecord first = store.loadDay(startDate);
+		store.storeDay(new DayRecord(startDate, first.getDurations(), "B", LocalTime.parse("09:30")));
+		store.remove(projects.get(0));
+		store.shutdown();
+
+		JournalStore reopened = new JournalStore(PATH);
+		reopened.init();
+		List<Project> listed = reopened.readProjects();
+		TestCase.assertEquals(2, listed.size());
+		TestCase.assertEquals(projects.get(2).getName(), listed.get(1).getName());
+
+		DayRecord record = reopened.loadDay(startDate.plusDays(3));
+		TestCase.assertEquals(Duration.ofMinutes(6), record.getDurations().get(projects.get(2).getName()));
+		record = reopened.loadDay(startDate);
+		TestCase.assertEquals("B", record.getActiveName());
+		TestCase.assertEquals(LocalTime.parse("09:30"), record.getStartTime());
+
+		Map<String, Duration> report = reopened.report(startDate, startDate.plusDays(30));
+		TestCase.assertEquals(Duration.ofMinutes(465), report.get("B"));
+		TestCase.assertEquals(Duration.ZERO, report.get("A"));
+		reopened.shutdown();
+	}
+
+	@Test
+	public void testUncommittedRecordsDiscarded() throws Exception
+	{
+		JournalStore store = new JournalStore(PATH);
+		store.init();
+		List<Project> projects = new ArrayList<>(Arrays.asList(new Project("A")));
+		store.add(projects.get(0));
+		LocalDate date = LocalDate.parse("2014-01-01");
+		projects.get(0).setCurrentDuration(Duration.ofMinutes(10));
+		store.storeTimexData(date, projects, null);
+		projects.get(0).setCurrentDuration(Duration.ofMinutes(20));
+		store.storeTimexData(date, projects, null);
+		store.shutdown();
+
+		// drop the last commit marker, as if the process died mid-write
+		try ( RandomAccessFile file = new RandomAccessFile(PATH, "rw") )
+		{
+			long offset = 0;
+			long lastCommit = -1;
+			while (offset < file.length())
+			{
+				file.seek(offset);
+				byte type = file.readByte();
+				if (type == JournalStore.EMPTY)
+				{
+					break;
+				}
+				if (type == JournalStore.COMMIT)
+				{
+					lastCommit = offset;
+				}
+				offset += JournalStore.RECORD_SIZE;
+			}
+			file.seek(lastCommit);
+			file.writeByte(JournalStore.EMPTY);
+		}
+
+		JournalStore reopened = new JournalStore(PATH);
+		reopened.init();
+		TestCase.assertEquals(Duration.ofMinutes(10), reopened.loadDay(date).getDurations().get("A"));
+		projects.get(0).setCurrentDuration(Duration.ofMinutes(30));
+		reopened.storeTimexData(date, projects, null);
+		reopened.shutdown();
+
+		reopened = new JournalStore(PATH);
+		reopened.init();
+		TestCase.assertEquals(Duration.ofMinutes(30), reopened.loadDay(date).getDurations().get("A"));
+		reopened.shutdown();
+	}
+
+	@Test
+	public void testActiveWithoutStartTime()
+	{
+		JournalStore store = new JournalStore(PATH);
+		store.init();
+		LocalDate date = LocalDate.parse("2014-01-01");
+		store.storeDay(new DayRecord(date, Collections.singletonMap("A", Duration.ZERO), "A", null));
+		store.shutdown();
+
+		JournalStore reopened = new JournalStore(PATH);
+		reopened.init();
+		DayRecord record = reopened.loadDay(date);
+		TestCase.assertEquals("A", record.getActiveName());
+		TestCase.assertNull(record.getStartTime());
+		reopened.shutdown();
+	}
+
+	@Test
+	public void testJournalTooLarge() throws Exception
+	{
+		try ( RandomAccessFile file = new RandomAccessFile(PATH, "rw") )
+		{
+			// sparse, so nothing is written
+			file.setLength(3L << 30);
+		}
+		JournalStore store = new JournalStore(PATH);
+		try
+		{
+			store.init();
+			TestCase.fail("Expected a journal over 2 GB to be rejected");
+		}
+		catch (InitialisationFailed e)
+		{
+			TestCase.assertTrue(e.getCause().getMessage().contains(PATH));
+		}
+		finally
+		{
+			store.shutdown();
+			new File(PATH).delete();
+		}
+	}
+}
@@ -3,8 +3,11 @@ package jtimex.store;
 import java.io.File;
 import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -18,6 +21,14 @@ import junit.framework.TestCase;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.neo4j.graphdb.ConstraintViolationException;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 
 public class Neo4JStoreTest {
 
@@ -99,4 +110,408 @@ public class Neo4JStoreTest {
 		}
 	}
 	
+	@Test
+	public void testLoadRange()
+	{
+		List<Project> projects = Arrays.asList(new Project("D"), new Project("E"));
+		for (Project p : projects)
+		{
+			store.add(p);
+			p.setCurrentDuration(Duration.ofMinutes(30));
+		}
+		LocalDate startDate = LocalDate.parse("2013-06-01");
+		// store out of order to check the range scan sorts by day
+		store.storeTimexData(startDate.plusDays(2), projects, null);
+		store.storeTimexData(startDate, projects, null);
+		store.storeTimexData(startDate.plusDays(10), projects, null);
+		
+		List<DayRecord> records = store.loadRange(startDate, startDate.plusDays(9));
+		TestCase.assertEquals(2, records.size());
+		TestCase.assertEquals(startDate, records.get(0).getDate());
+		TestCase.assertEquals(startDate.plusDays(2), records.get(1).getDate());
+		TestCase.assertEquals(Duration.ofMinutes(30), records.get(0).getDurations().get("D"));
+	}
+	
+	@Test
+	public void testMigrateDateStrings()
+	{
+		String dbPath = "target/testdb-migrate";
+		deleteRecursively(new File(dbPath));
+		GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(dbPath);
+		try ( Transaction tx = graphDb.beginTx() )
+		{
+			graphDb.schema().indexFor(DynamicLabel.label("TimexRecord")).on("date").create();
+			tx.success();
+		}
+		try ( Transaction tx = graphDb.beginTx() )
+		{
+			Node node = graphDb.createNode(DynamicLabel.label("TimexRecord"));
+			node.setProperty("date", "2012-03-04");
+			node.setProperty("#A", Duration.ofHours(2).toString());
+			tx.success();
+		}
+		graphDb.shutdown();
+		
+		Neo4JStore migrated = new Neo4JStore(dbPath);
+		migrated.init();
+		try
+		{
+			LocalDate date = LocalDate.parse("2012-03-04");
+			Map<String, Duration> durations = migrated.report(date, date);
+			TestCase.assertEquals(Duration.ofHours(2), durations.get("A"));
+			
+			// string encoded durations are replaced when the day is written
+			List<Project> projects = new ArrayList<>();
+			migrated.loadTimexData(date, projects, false);
+			projects.add(new Project("B"));
+			migrated.storeTimexData(date, projects, null);
+			TestCase.assertEquals(1, migrated.getLastPropertiesWritten());
+			try ( Transaction tx = migrated.graphDb.beginTx() )
+			{
+				Node node = migrated.graphDb.findNodesByLabelAndProperty(
+						DynamicLabel.label("TimexRecord"), "day", date.toEpochDay()).iterator().next();
+				TestCase.assertFalse(node.hasProperty("#A"));
+				Relationship spent = node.getRelationships(Direction.INCOMING).iterator().next();
+				TestCase.assertEquals("A", spent.getStartNode().getProperty("name"));
+				TestCase.assertEquals(7200L, spent.getProperty("seconds"));
+				tx.success();
+			}
+			TestCase.assertEquals(0, migrated.checkRollups(false));
+		}
+		finally
+		{
+			migrated.graphDb.shutdown();
+		}
+	}
+	
+	@Test
+	public void testDeltaWrite()
+	{
+		List<Project> projects = new ArrayList<>();
+		for (int i=0; i<50; i++)
+		{
+			Project p = new Project("Delta" + i);
+			p.setCurrentDuration(Duration.ofMinutes(i));
+			projects.add(p);
+		}
+		LocalDate date = LocalDate.parse("2013-02-01");
+		store.storeTimexData(date, projects, null);
+		TestCase.assertEquals(50, store.getLastPropertiesWritten());
+		
+		store.storeTimexData(date, projects, null);
+		TestCase.assertEquals(0, store.getLastPropertiesWritten());
+		
+		projects.get(7).setCurrentDuration(Duration.ofHours(1));
+		store.storeTimexData(date, projects, null);
+		TestCase.assertEquals(1, store.getLastPropertiesWritten());
+		
+		projects.remove(3);
+		store.storeTimexData(date, projects, null);
+		TestCase.assertEquals(1, store.getLastPropertiesWritten());
+		Map<String, Duration> durations = store.report(date, date);
+		TestCase.assertEquals(49, durations.size());
+		TestCase.assertEquals(Duration.ofHours(1), durations.get("Delta7"));
+	}
+	
+	@Test
+	public void testReportRollups()
+	{
+		List<Project> projects = Arrays.asList(new Project("R1"), new Project("R2"));
+		LocalDate startDate = LocalDate.parse("2015-03-01");
+		LocalDate endDate = LocalDate.parse("2015-04-30");
+		LocalDate date = startDate;
+		int day = 0;
+		while (!date.isAfter(endDate))
+		{
+			projects.get(0).setCurrentDuration(Duration.ofMinutes(day));
+			projects.get(1).setCurrentDuration(Duration.ofMinutes(2 * day));
+			store.storeTimexData(date, projects, null);
+			date = date.plusDays(1);
+			day++;
+		}
+		// overwrite a day so the rollups see a change rather than an insert
+		projects.get(0).setCurrentDuration(Duration.ofMinutes(1000));
+		store.storeTimexData(LocalDate.parse("2015-03-10"), projects, null);
+		TestCase.assertEquals(0, store.checkRollups(false));
+		
+		// March (month rollup), a partial week, and an ISO week crossing into April
+		assertReport(LocalDate.parse("2015-03-01"), LocalDate.parse("2015-03-31"));
+		assertReport(LocalDate.parse("2015-03-04"), LocalDate.parse("2015-03-07"));
+		assertReport(LocalDate.parse("2015-03-30"), LocalDate.parse("2015-04-05"));
+		assertReport(LocalDate.parse("2015-02-20"), LocalDate.parse("2015-05-03"));
+		
+		try ( Transaction tx = store.graphDb.beginTx() )
+		{
+			Node node = store.graphDb.findNodesByLabelAndProperty(
+					Neo4JRollups.ROLLUP_LABEL, Neo4JRollups.PERIOD_KEY, "2015-03").iterator().next();
+			for (String key : node.getPropertyKeys())
+			{
+				if (key.startsWith("p:"))
+				{
+					node.setProperty(key, 0L);
+				}
+			}
+			tx.success();
+		}
+		TestCase.assertEquals(1, store.checkRollups(true));
+		TestCase.assertEquals(0, store.checkRollups(false));
+	}
+	
+	@Test
+	public void testRenameKeepsHistory()
+	{
+		Project project = new Project("Old");
+		store.add(project);
+		LocalDate date = LocalDate.parse("2011-06-01");
+		store.storeDay(new DayRecord(date, Collections.singletonMap("Old", Duration.ofHours(3)), 
+				"Old", LocalTime.parse("09:00")));
+		
+		store.rename(project, "New");
+		project.setName("New");
+		DayRecord record = store.loadDay(date);
+		TestCase.assertEquals(Duration.ofHours(3), record.getDurations().get("New"));
+		TestCase.assertEquals("New", record.getActiveName());
+		TestCase.assertEquals(Duration.ofHours(3), store.report(date, date).get("New"));
+		try
+		{
+			store.rename(new Project("Other"), "New");
+			TestCase.fail("Expected a duplicate name to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+		
+		// removed projects keep their history
+		store.remove(project);
+		for (Project p : store.readProjects())
+		{
+			TestCase.assertFalse(p.getName().equals("New"));
+		}
+		TestCase.assertEquals(Duration.ofHours(3), store.report(date, date).get("New"));
+	}
+	
+	@Test
+	public void testSeries()
+	{
+		LocalDate startDate = LocalDate.parse("2010-12-30");
+		LocalDate endDate = LocalDate.parse("2011-01-05");
+		Project a = new Project("SeriesA");
+		Project b = new Project("SeriesB");
+		List<Project> projects = Arrays.asList(a, b);
+		LocalDate date = startDate.plusDays(1);
+		for (int i=1; i<5; i++, date = date.plusDays(1))
+		{
+			a.setCurrentDuration(Duration.ofMinutes(i));
+			b.setCurrentDuration(Duration.ofMinutes(10 * i));
+			store.storeTimexData(date, projects, null);
+		}
+		
+		long[] seconds = store.series("SeriesA", startDate, endDate);
+		TestCase.assertTrue(Arrays.equals(new long[] { 0, 60, 120, 180, 240, 0, 0 }, seconds));
+		
+		// the array is reused and may be longer than the range
+		long[] buffer = new long[10];
+		Arrays.fill(buffer, -1);
+		store.series("SeriesB", startDate, endDate, buffer);
+		TestCase.assertEquals(600, buffer[1]);
+		TestCase.assertEquals(0, buffer[6]);
+		TestCase.assertEquals(-1, buffer[7]);
+		
+		Map<String, long[]> series = store.series(Arrays.asList("SeriesA", "Unknown"), startDate, endDate);
+		TestCase.assertTrue(Arrays.equals(seconds, series.get("SeriesA")));
+		TestCase.assertTrue(Arrays.equals(new long[7], series.get("Unknown")));
+		try
+		{
+			store.series("SeriesA", startDate, endDate, new long[6]);
+			TestCase.fail("Expected the array to be too short");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+	
+	@Test
+	public void testStreamReport()
+	{
+		List<Project> projects = Arrays.asList(new Project("S1"), new Project("S2"));
+		LocalDate startDate = LocalDate.parse("2009-01-25");
+		LocalDate endDate = LocalDate.parse("2009-02-05");
+		for (LocalDate date = startDate; !date.isAfter(endDate); date = date.plusDays(1))
+		{
+			projects.get(0).setCurrentDuration(Duration.ofMinutes(date.getDayOfMonth()));
+			projects.get(1).setCurrentDuration(Duration.ofMinutes(1));
+			store.storeTimexData(date, projects, null);
+		}
+		
+		List<LocalDate> dates = new ArrayList<>();
+		Map<String, Long> totals = new HashMap<>();
+		store.streamReport(startDate, endDate, (date, project, seconds) -> {
+			dates.add(date);
+			totals.merge(project, seconds, Long::sum);
+			return true;
+		});
+		TestCase.assertEquals(24, dates.size());
+		for (int i=1; i<dates.size(); i++)
+		{
+			TestCase.assertFalse(dates.get(i).isBefore(dates.get(i-1)));
+		}
+		Map<String, Duration> report = store.report(startDate, endDate);
+		TestCase.assertEquals(report.get("S1"), Duration.ofSeconds(totals.get("S1")));
+		TestCase.assertEquals(Duration.ofMinutes(12), report.get("S2"));
+		
+		// stops as soon as the consumer returns false
+		List<String> rows = new ArrayList<>();
+		store.streamReport(startDate, endDate, (date, project, seconds) -> rows.add(project) && rows.size() < 3);
+		TestCase.assertEquals(3, rows.size());
+	}
+	
+	@Test
+	public void testParallelReport()
+	{
+		List<Project> projects = Arrays.asList(new Project("F1"), new Project("F2"), new Project("F3"));
+		LocalDate startDate = LocalDate.parse("2008-01-10");
+		LocalDate endDate = LocalDate.parse("2008-05-20");
+		int day = 0;
+		for (LocalDate date = startDate; !date.isAfter(endDate); date = date.plusDays(1), day++)
+		{
+			for (int i=0; i<projects.size(); i++)
+			{
+				projects.get(i).setCurrentDuration(Duration.ofMinutes(day % (i + 2)));
+			}
+			store.storeTimexData(date, projects, null);
+		}
+		Map<String, Duration> expected = store.report(startDate, endDate);
+		ParallelReport parallel = new ParallelReport(3, 10);
+		try
+		{
+			TestCase.assertEquals(expected, parallel.report(store, startDate, endDate));
+			store.setParallelReport(parallel);
+			TestCase.assertEquals(expected, store.report(startDate, endDate));
+			TestCase.assertEquals(store.report(startDate, startDate.plusDays(3)),
+					parallel.report(store, startDate, startDate.plusDays(3)));
+		}
+		finally
+		{
+			store.setParallelReport(null);
+			parallel.shutdown();
+		}
+	}
+	
+	@Test
+	public void testProjectRegistry()
+	{
+		Project project = new Project("Registered");
+		store.add(project);
+		Project found = store.findProject("Registered");
+		TestCase.assertEquals(project.getId(), found.getId());
+		TestCase.assertNull(store.findProject("Unregistered"));
+		
+		// the name is unique in the database as well
+		try ( Transaction tx = store.graphDb.beginTx() )
+		{
+			Node node = store.graphDb.createNode(DynamicLabel.label("Project"));
+			node.setProperty("name", "Registered");
+			tx.success();
+			TestCase.fail("Expected a duplicate project name to be rejected");
+		}
+		catch (ConstraintViolationException e)
+		{
+			// expected
+		}
+		
+		store.remove(project);
+		TestCase.assertNull(store.findProject("Registered"));
+		for (Project p : store.readProjects())
+		{
+			TestCase.assertFalse(p.getName().equals("Registered"));
+		}
+	}
+	
+	@Test
+	public void testRenameToDeletedProject()
+	{
+		LocalDate date = LocalDate.parse("2014-06-04");
+		Project deleted = new Project("Deleted");
+		Project other = new Project("Other");
+		store.add(deleted);
+		store.add(other);
+		store.storeDay(new DayRecord(date, Collections.singletonMap("Deleted", Duration.ofHours(1)), null, null));
+		store.remove(deleted);
+		try
+		{
+			store.rename(other, "Deleted");
+			TestCase.fail("Expected the name of the deleted project to be taken");
+		}
+		catch (IllegalArgumentException e)
+		{
+			TestCase.assertTrue(e.getMessage().startsWith("A deleted project named 'Deleted'"));
+		}
+		// adding it again restores the project and its history
+		store.add(new Project("Deleted"));
+		TestCase.assertNotNull(store.findProject("Deleted"));
+		TestCase.assertEquals(Duration.ofHours(1), store.report(date, date).get("Deleted"));
+	}
+	
+	@Test
+	public void testActiveWithoutStartTime()
+	{
+		LocalDate date = LocalDate.parse("2014-06-03");
+		store.storeDay(new DayRecord(date, Collections.singletonMap("Idle", Duration.ZERO), "Idle", LocalTime.parse("10:00")));
+		store.storeDay(new DayRecord(date, Collections.singletonMap("Idle", Duration.ZERO), "Idle", null));
+		DayRecord record = store.loadDay(date);
+		TestCase.assertEquals("Idle", record.getActiveName());
+		TestCase.assertNull(record.getStartTime());
+	}
+	
+	@Test
+	public void testRolledBackProjectNode()
+	{
+		LocalDate date = LocalDate.parse("2014-06-02");
+		try
+		{
+			// the missing duration fails the store after the node of the
+			// new project was created
+			store.storeDay(new DayRecord(date, Collections.singletonMap("Ghost", null), null, null));
+			TestCase.fail("Expected the record without a duration to be rejected");
+		}
+		catch (NullPointerException e)
+		{
+			// expected
+		}
+		TestCase.assertNull(store.registry.idOf("Ghost"));
+		// may be given the id of the node that was rolled back
+		store.add(new Project("AfterGhost"));
+		store.storeDay(new DayRecord(date, Collections.singletonMap("Ghost", Duration.ofHours(1)), null, null));
+		TestCase.assertEquals(Collections.singletonMap("Ghost", Duration.ofHours(1)), store.loadDay(date).getDurations());
+		TestCase.assertNotNull(store.findProject("AfterGhost"));
+		TestCase.assertNull(store.findProject("Ghost"));
+	}
+	
+	private static void assertReport(LocalDate startDate, LocalDate endDate)
+	{
+		Map<String, Duration> expected = new HashMap<>();
+		for (DayRecord record : store.loadRange(startDate, endDate))
+		{
+			record.getDurations().forEach((n, d) -> expected.merge(n, d, Duration::plus));
+		}
+		Map<String, Duration> actual = store.report(startDate, endDate);
+		TestCase.assertEquals(expected.get("R1"), actual.get("R1"));
+		TestCase.assertEquals(expected.get("R2"), actual.get("R2"));
+	}
+	
+	static void deleteRecursively(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+	
 }
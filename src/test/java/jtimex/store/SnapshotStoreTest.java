@@ -0,0 +1,92 @@
+package jtimex.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jtimex.Project;
+import jtimex.store.WriteBehindStoreTest.RecordingStore;
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SnapshotStoreTest {
+
+	final static String PATH = "target/test.snapshot";
+
+	@Before
+	public void setup()
+	{
+		new File(PATH).delete();
+	}
+
+	@Test
+	public void testSnapshotFollowsToday()
+	{
+		RecordingStore recording = new RecordingStore();
+		SnapshotStore store = new SnapshotStore(recording, PATH);
+		store.init();
+		TestCase.assertNull(SnapshotStore.readSnapshot(PATH));
+
+		// other days are not snapshotted
+		LocalDate today = LocalDate.now();
+		Project a = new Project("A");
+		a.setCurrentDuration(Duration.ofMinutes(5));
+		store.storeTimexData(today.minusDays(1), Arrays.asList(a), null);
+		store.flush();
+		TestCase.assertNull(SnapshotStore.readSnapshot(PATH));
+
+		Project b = new Project("B");
+		store.storeDay(new DayRecord(today, DayRecord.of(today, Arrays.asList(a, b), null).getDurations(),
+				"B", LocalTime.parse("08:15")));
+		TestCase.assertEquals(2, recording.batches.size());
+		// written in the background
+		store.flush();
+		DayRecord snapshot = SnapshotStore.readSnapshot(PATH);
+		TestCase.assertEquals(today, snapshot.getDate());
+		TestCase.assertEquals(Arrays.asList("A", "B"), new ArrayList<>(snapshot.getDurations().keySet()));
+		TestCase.assertEquals(Duration.ofMinutes(5), snapshot.getDurations().get("A"));
+		TestCase.assertEquals("B", snapshot.getActiveName());
+		TestCase.assertEquals(LocalTime.parse("08:15"), snapshot.getStartTime());
+
+		// project list changes are applied to the snapshot
+		store.add(new Project("C"));
+		store.rename(b, "D");
+		store.remove(a);
+		store.flush();
+		snapshot = SnapshotStore.readSnapshot(PATH);
+		TestCase.assertEquals(Arrays.asList("D", "C"), new ArrayList<>(snapshot.getDurations().keySet()));
+		TestCase.assertEquals("D", snapshot.getActiveName());
+		TestCase.assertEquals(Duration.ZERO, snapshot.getDurations().get("C"));
+
+		// the tracker can resume from the snapshot
+		List<Project> projects = new ArrayList<>();
+		Project active = snapshot.applyTo(projects, true);
+		TestCase.assertEquals(2, projects.size());
+		TestCase.assertEquals("D", active.getName());
+
+		// a snapshot queued at shutdown is still written
+		store.rename(active, "E");
+		store.shutdown();
+		TestCase.assertTrue(recording.shutdown);
+		TestCase.assertEquals("E", SnapshotStore.readSnapshot(PATH).getActiveName());
+		TestCase.assertFalse(new File(PATH + ".tmp").exists());
+	}
+
+	@Test
+	public void testUnreadableSnapshot() throws IOException
+	{
+		try ( FileOutputStream out = new FileOutputStream(PATH) )
+		{
+			out.write(new byte[] { 1, 2, 3 });
+		}
+		TestCase.assertNull(SnapshotStore.readSnapshot(PATH));
+	}
+}
@@ -0,0 +1,192 @@
+package jtimex.store;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import jtimex.Project;
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class WriteBehindStoreTest {
+
+	/**
+	 * Records the batches written to it. Writes block until released.
+	 */
+	static class RecordingStore implements DataStore
+	{
+		final List<List<DayRecord>> batches = Collections.synchronizedList(new ArrayList<>());
+		final Map<LocalDate, DayRecord> days = Collections.synchronizedMap(new HashMap<>());
+		volatile CountDownLatch release = new CountDownLatch(0);
+		boolean shutdown;
+
+		@Override
+		public void init() {}
+
+		@Override
+		public void shutdown()
+		{
+			shutdown = true;
+		}
+
+		@Override
+		public List<Project> readProjects()
+		{
+			return new ArrayList<>();
+		}
+
+		@Override
+		public void add(Project project) {}
+
+		@Override
+		public void remove(Project project) {}
+
+		@Override
+		public void rename(Project project, String name) {}
+
+		@Override
+		public void storeDay(DayRecord record)
+		{
+			storeDays(Arrays.asList(record));
+		}
+
+		@Override
+		public void storeDays(Collection<DayRecord> records)
+		{
+			try
+			{
+				release.await();
+			}
+			catch (InterruptedException e)
+			{
+				throw new RuntimeException(e);
+			}
+			batches.add(new ArrayList<>(records));
+			records.forEach(r -> days.put(r.getDate(), r));
+		}
+
+		@Override
+		public DayRecord loadDay(LocalDate date)
+		{
+			DayRecord record = days.get(date);
+			return record == null ? DayRecord.empty(date) : record;
+		}
+
+		@Override
+		public List<DayRecord> loadRange(LocalDate startDate, LocalDate endDate)
+		{
+			return new ArrayList<>();
+		}
+
+		@Override
+		public Map<String, Duration> report(LocalDate startDate, LocalDate endDate)
+		{
+			Map<String, Duration> durations = new HashMap<>();
+			days.values().forEach(r -> r.getDurations().forEach((n, d) -> durations.merge(n, d, Duration::plus)));
+			return durations;
+		}
+	}
+
+	@Test
+	public void testCollapseAndFlushOnShutdown()
+	{
+		RecordingStore recording = new RecordingStore();
+		WriteBehindStore store = new WriteBehindStore(recording, 60000, 32);
+		store.init();
+
+		List<Project> projects = Arrays.asList(new Project("A"), new Project("B"));
+		LocalDate date = LocalDate.parse("2014-01-01");
+		for (int i=1; i<=10; i++)
+		{
+			projects.get(0).setCurrentDuration(Duration.ofMinutes(i));
+			store.storeTimexData(date, projects, null);
+		}
+		store.storeTimexData(date.plusDays(1), projects, null);
+		TestCase.assertTrue(recording.batches.isEmpty());
+		TestCase.assertEquals(2, store.getPendingCount());
+
+		// pending writes are visible to reads
+		List<Project> loaded = new ArrayList<>();
+		store.loadTimexData(date, loaded, false);
+		TestCase.assertEquals(Duration.ofMinutes(10), loaded.get(0).getCurrentDuration());
+
+		store.shutdown();
+		TestCase.assertTrue(recording.shutdown);
+		TestCase.assertEquals(1, recording.batches.size());
+		TestCase.assertEquals(2, recording.batches.get(0).size());
+		TestCase.assertEquals(Duration.ofMinutes(10),
+				recording.loadDay(date).getDurations().get("A"));
+	}
+
+	@Test
+	public void testStoreDoesNotWaitForWriter() throws Exception
+	{
+		RecordingStore recording = new RecordingStore();
+		recording.release = new CountDownLatch(1);
+		WriteBehindStore store = new WriteBehindStore(recording, 10, 32);
+		store.init();
+
+		List<Project> projects = Arrays.asList(new Project("A"));
+		LocalDate date = LocalDate.parse("2014-01-01");
+		for (int i=1; i<=100; i++)
+		{
+			projects.get(0).setCurrentDuration(Duration.ofMinutes(i));
+			store.storeTimexData(date, projects, null);
+		}
+		TestCase.assertTrue(recording.batches.isEmpty());
+
+		recording.release.countDown();
+		Map<String, Duration> report = store.report(date, date);
+		TestCase.assertEquals(Duration.ofMinutes(100), report.get("A"));
+		TestCase.assertEquals(0, store.getPendingCount());
+		store.shutdown();
+	}
+
+	@Test
+	public void testStoreAfterShutdown()
+	{
+		RecordingStore recording = new RecordingStore();
+		WriteBehindStore store = new WriteBehindStore(recording, 60000, 1);
+		store.init();
+		store.shutdown();
+
+		// written right away rather than rejected by the stopped writer
+		LocalDate date = LocalDate.parse("2014-01-01");
+		store.storeTimexData(date, Arrays.asList(new Project("A")), null);
+		TestCase.assertEquals(0, store.getPendingCount());
+		TestCase.assertEquals(1, recording.batches.size());
+	}
+
+	@Test
+	public void testShutdownAfterFailedFlush()
+	{
+		RecordingStore recording = new RecordingStore() {
+			@Override
+			public void storeDays(Collection<DayRecord> records)
+			{
+				throw new IllegalStateException("Store failed");
+			}
+		};
+		WriteBehindStore store = new WriteBehindStore(recording, 60000, 32);
+		store.init();
+		store.storeTimexData(LocalDate.parse("2014-01-01"), Arrays.asList(new Project("A")), null);
+		try
+		{
+			store.shutdown();
+			TestCase.fail("Expected the failed flush to be reported");
+		}
+		catch (IllegalStateException e)
+		{
+			// expected
+		}
+		TestCase.assertTrue(recording.shutdown);
+	}
+}